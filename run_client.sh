@@ -23,4 +23,4 @@ if [[ "$HOST" == "" || "$PORT" == "" ]] ; then
 fi
 
 cd './bin'
-java codeu.chat.ClientMain "$HOST@$PORT"
+java $JAVA_OPTS codeu.chat.ClientMain "$HOST@$PORT"
@@ -18,4 +18,4 @@ LOCAL_MACHINE="localhost@2007"
 
 cd './bin'
 
-java codeu.chat.SimpleGuiClientMain "$LOCAL_MACHINE"
+java $JAVA_OPTS codeu.chat.SimpleGuiClientMain "$LOCAL_MACHINE"
@@ -19,6 +19,7 @@ import java.util.Scanner;
 
 import codeu.chat.client.commandline.Chat;
 import codeu.chat.client.Controller;
+import codeu.chat.client.Session;
 import codeu.chat.client.View;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
@@ -29,6 +30,10 @@ final class ClientMain {
 
   private static final Logger.Log LOG = Logger.newLog(ClientMain.class);
 
+  // Set with "-Dcodeu.chat.framed=true" when the server is using the "nio"
+  // front end or was itself started with framing.
+  private static final boolean FRAMED = Boolean.getBoolean("codeu.chat.framed");
+
   public static void main(String [] args) {
 
     try {
@@ -43,9 +48,9 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    final ConnectionSource source = new Session(address.host, address.port, FRAMED);
     final Controller controller = new Controller(source);
-    final View view = new View(source);
+    final View view = new View(source, new ClientConnectionSource(address.host, address.port, FRAMED));
 
     LOG.info("Creating client...");
     final Chat chat = new Chat(controller, view);
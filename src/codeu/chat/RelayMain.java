@@ -17,11 +17,13 @@ package codeu.chat;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
+import codeu.chat.util.ThreadPerTaskExecutor;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
@@ -32,6 +34,11 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  // How connections are handled. "timeline" (the default) handles them one at
+  // a time on the relay's timeline. "thread" gives every connection its own
+  // thread so that one slow server cannot hold up the others.
+  private static final String EXECUTOR = System.getProperty("codeu.chat.executor", "timeline");
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -73,6 +80,16 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
+    final Executor connections = "thread".equals(EXECUTOR) ?
+        new ThreadPerTaskExecutor("relay-connection") :
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            timeline.scheduleNow(task);
+          }
+        };
+    LOG.info("Relay connections will be handled on: %s", EXECUTOR);
+
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
@@ -95,7 +112,7 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        connections.execute(new Runnable() {
           @Override
           public void run() {
             try {
@@ -103,6 +120,12 @@ final class RelayMain {
             } catch (Exception ex) {
               LOG.error(ex, "Exception handling connection.");
             }
+
+            try {
+              connection.close();
+            } catch (Exception ex) {
+              LOG.error(ex, "Exception closing connection.");
+            }
           }
         });
 
@@ -16,6 +16,8 @@
 package codeu.chat;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
@@ -24,16 +26,49 @@ import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.ThreadPerTaskExecutor;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.PooledConnectionSource;
+import codeu.chat.util.connections.SelectorConnectionSource;
 import codeu.chat.util.connections.ServerConnectionSource;
 
 final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  // The number of threads used to run client requests. This can be changed
+  // with "-Dcodeu.chat.workers=N" when starting the server. By default there
+  // is one thread per core.
+  private static final int WORKERS = Math.max(1, Integer.getInteger(
+      "codeu.chat.workers",
+      Runtime.getRuntime().availableProcessors()));
+
+  // How many requests can be waiting to run before the server starts turning
+  // new ones away. Can be changed with "-Dcodeu.chat.queue=N".
+  private static final int QUEUE = Math.max(1, Integer.getInteger(
+      "codeu.chat.queue",
+      Server.DEFAULT_MAX_QUEUED));
+
+  // How requests are run. "pool" (the default) uses a fixed number of worker
+  // threads (see WORKERS). "thread" gives every connection its own thread,
+  // which lets many slow clients be served at once.
+  private static final String EXECUTOR = System.getProperty("codeu.chat.executor", "pool");
+
+  // How the server accepts and reads from sockets. "blocking" (the default)
+  // uses one blocking socket per request. "nio" uses a few selector threads
+  // for all sockets and expects clients to send framed requests. The number
+  // of selector threads can be changed with "-Dcodeu.chat.selectors=N".
+  private static final String FRONT_END = System.getProperty("codeu.chat.frontend", "blocking");
+  private static final int SELECTORS = Math.max(1, Integer.getInteger("codeu.chat.selectors", 2));
+
+  // Whether the blocking front end expects framed requests (see Frames). The
+  // "nio" front end is always framed. Clients must be started with the same
+  // setting.
+  private static final boolean FRAMED = Boolean.getBoolean("codeu.chat.framed");
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -60,11 +95,16 @@ final class ServerMain {
                                        null;
 
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort);
-        final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
+        final ConnectionSource serverSource = "nio".equals(FRONT_END) ?
+                                              SelectorConnectionSource.forPort(myPort, SELECTORS) :
+                                              ServerConnectionSource.forPort(myPort, FRAMED);
+        final ConnectionSource relaySource = relayAddress == null ?
+                                             null :
+                                             new PooledConnectionSource(
+                                                 new ClientConnectionSource(relayAddress.host, relayAddress.port))
     ) {
 
-      LOG.info("Starting server...");
+      LOG.info("Starting server (front end=%s, framed=%s)...", FRONT_END, FRAMED || "nio".equals(FRONT_END));
       runServer(id, secret, serverSource, relaySource);
 
     } catch (IOException ex) {
@@ -83,9 +123,13 @@ final class ServerMain {
                         new NoOpRelay() :
                         new RemoteRelay(relaySource);
 
-    final Server server = new Server(id, secret, relay);
+    final Executor workers = "thread".equals(EXECUTOR) ?
+                             new ThreadPerTaskExecutor("connection") :
+                             Executors.newFixedThreadPool(WORKERS);
+
+    final Server server = new Server(id, secret, relay, workers, QUEUE);
 
-    LOG.info("Created server.");
+    LOG.info("Created server (executor=%s).", EXECUTOR);
 
     while (true) {
 
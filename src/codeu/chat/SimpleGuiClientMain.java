@@ -17,6 +17,7 @@ package codeu.chat;
 import java.io.IOException;
 
 import codeu.chat.client.Controller;
+import codeu.chat.client.Session;
 import codeu.chat.client.simplegui.ChatSimpleGui;
 import codeu.chat.client.View;
 import codeu.chat.util.Logger;
@@ -28,6 +29,10 @@ final class SimpleGuiClientMain {
 
   private static final Logger.Log LOG = Logger.newLog(SimpleGuiClientMain.class);
 
+  // Set with "-Dcodeu.chat.framed=true" when the server is using the "nio"
+  // front end or was itself started with framing.
+  private static final boolean FRAMED = Boolean.getBoolean("codeu.chat.framed");
+
   public static void main(String [] args) {
 
     try {
@@ -45,10 +50,10 @@ final class SimpleGuiClientMain {
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
     try (
-      final ConnectionSource source = new ClientConnectionSource(address.host, address.port)
+      final ConnectionSource source = new Session(address.host, address.port, FRAMED)
     ) {
       final Controller controller = new Controller(source);
-      final View view = new View(source);
+      final View view = new View(source, new ClientConnectionSource(address.host, address.port, FRAMED));
 
       LOG.info("Creating client...");
 
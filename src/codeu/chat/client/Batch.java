@@ -0,0 +1,305 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// BATCH
+//
+// Collects many requests and sends them to the server in one round trip. The
+// server runs them in the order they were added and none of them will see
+// changes made by other clients part way through the batch.
+//
+// Each call to add a request returns a Result which will hold the response
+// once "send" has been called. For example:
+//
+//   final Batch batch = controller.newBatch();
+//   final Batch.Result<Message> first = batch.newMessage(author, conversation, "hello");
+//   final Batch.Result<Message> second = batch.newMessage(author, conversation, "world");
+//   batch.send();
+//
+// A batch can only be sent once.
+public final class Batch {
+
+  private final static Logger.Log LOG = Logger.newLog(Batch.class);
+
+  // RESULT
+  //
+  // The response to one request in a batch. "get" returns null until the batch
+  // has been sent, or if the request (or the whole batch) failed.
+  public static final class Result<T> {
+
+    private final int responseType;
+    private final Decoder<T> decoder;
+
+    private T value;
+
+    private Result(int responseType, Decoder<T> decoder) {
+      this.responseType = responseType;
+      this.decoder = decoder;
+    }
+
+    public T get() {
+      return value;
+    }
+
+    private void complete(InputStream in, int version) throws IOException {
+      if (Serializers.INTEGER.read(in) == responseType) {
+        value = decoder.serializer(version).read(in);
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    }
+  }
+
+  private interface Request {
+    void write(OutputStream out) throws IOException;
+  }
+
+  // Picks how a response is read, as some responses are encoded differently
+  // depending on the protocol version.
+  private interface Decoder<T> {
+    Serializer<T> serializer(int version);
+  }
+
+  private static final Decoder<Collection<Message>> MESSAGES = new Decoder<Collection<Message>>() {
+    @Override
+    public Serializer<Collection<Message>> serializer(int version) {
+      return Message.collectionSerializer(version);
+    }
+  };
+
+  private final ConnectionSource source;
+
+  private final List<Request> requests = new ArrayList<>();
+  private final List<Result<?>> results = new ArrayList<>();
+
+  private boolean sent = false;
+
+  Batch(ConnectionSource source) {
+    this.source = source;
+  }
+
+  public int size() {
+    return requests.size();
+  }
+
+  public Result<Message> newMessage(final Uuid author, final Uuid conversation, final String body) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_REQUEST);
+        Uuid.SERIALIZER.write(out, author);
+        Uuid.SERIALIZER.write(out, conversation);
+        Serializers.STRING.write(out, body);
+      }
+    }, NetworkCode.NEW_MESSAGE_RESPONSE, Serializers.nullable(Message.SERIALIZER));
+  }
+
+  public Result<User> newUser(final String name) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_USER_REQUEST);
+        Serializers.STRING.write(out, name);
+      }
+    }, NetworkCode.NEW_USER_RESPONSE, Serializers.nullable(User.SERIALIZER));
+  }
+
+  public Result<Conversation> newConversation(final String title, final Uuid owner) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_REQUEST);
+        Serializers.STRING.write(out, title);
+        Uuid.SERIALIZER.write(out, owner);
+      }
+    }, NetworkCode.NEW_CONVERSATION_RESPONSE, Serializers.nullable(Conversation.SERIALIZER));
+  }
+
+  public Result<Collection<User>> getUsers(final Collection<Uuid> ids) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+      }
+    }, NetworkCode.GET_USERS_BY_ID_RESPONSE, Serializers.collection(User.SERIALIZER));
+  }
+
+  public Result<Collection<User>> getUsersExcluding(final Collection<Uuid> ids) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+      }
+    }, NetworkCode.GET_USERS_EXCLUDING_RESPONSE, Serializers.collection(User.SERIALIZER));
+  }
+
+  public Result<Collection<ConversationSummary>> getAllConversations() {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      }
+    }, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE, Serializers.collection(ConversationSummary.SERIALIZER));
+  }
+
+  public Result<Collection<Conversation>> getConversations(final Collection<Uuid> ids) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+      }
+    }, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE, Serializers.collection(Conversation.SERIALIZER));
+  }
+
+  public Result<Collection<Message>> getMessages(final Collection<Uuid> ids) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+        Serializers.collection(Uuid.SERIALIZER).write(out, ids);
+      }
+    }, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE, MESSAGES);
+  }
+
+  public Result<Collection<Message>> getMessages(final Uuid conversation, final Time start, final Time end) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+        Uuid.SERIALIZER.write(out, conversation);
+        Time.SERIALIZER.write(out, start);
+        Time.SERIALIZER.write(out, end);
+      }
+    }, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE, MESSAGES);
+  }
+
+  public Result<Collection<Message>> getMessages(final Uuid rootMessage, final int range) {
+    return add(new Request() {
+      @Override
+      public void write(OutputStream out) throws IOException {
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
+        Uuid.SERIALIZER.write(out, rootMessage);
+        Serializers.INTEGER.write(out, range);
+      }
+    }, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE, MESSAGES);
+  }
+
+  // SEND
+  //
+  // Send all the requests and fill in their results. Returns false if the batch
+  // as a whole failed, in which case some or all of the results will be null.
+  public boolean send() {
+
+    if (sent) {
+      throw new IllegalStateException("Batch has already been sent");
+    }
+
+    sent = true;
+
+    if (requests.isEmpty()) {
+      return true;
+    }
+
+    try (final Connection connection = source.connect()) {
+
+      final Collection<byte[]> encoded = new ArrayList<>(requests.size());
+
+      for (final Request request : requests) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.write(out);
+        encoded.add(out.toByteArray());
+      }
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.BATCH_REQUEST);
+      Serializers.collection(Serializers.BYTES).write(connection.out(), encoded);
+
+      if (ServerBusyException.readResponseType(connection.in()) != NetworkCode.BATCH_RESPONSE) {
+        LOG.error("Response from server failed.");
+        return false;
+      }
+
+      final Collection<byte[]> responses = Serializers.collection(Serializers.BYTES).read(connection.in());
+
+      if (responses.size() != results.size()) {
+        LOG.error("Expected %d responses but got %d.", results.size(), responses.size());
+        return false;
+      }
+
+      final Iterator<Result<?>> result = results.iterator();
+      final int version = Session.version(connection);
+
+      for (final byte[] response : responses) {
+        result.next().complete(new ByteArrayInputStream(response), version);
+      }
+
+      return true;
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return false;
+  }
+
+  private <T> Result<T> add(Request request, int responseType, final Serializer<T> serializer) {
+    return add(request, responseType, new Decoder<T>() {
+      @Override
+      public Serializer<T> serializer(int version) {
+        return serializer;
+      }
+    });
+  }
+
+  private <T> Result<T> add(Request request, int responseType, Decoder<T> decoder) {
+
+    if (sent) {
+      throw new IllegalStateException("Batch has already been sent");
+    }
+
+    final Result<T> result = new Result<>(responseType, decoder);
+
+    requests.add(request);
+    results.add(result);
+
+    return result;
+  }
+}
@@ -39,6 +39,14 @@ public class Controller implements BasicController {
     this.source = source;
   }
 
+  // NEW BATCH
+  //
+  // Start a batch of requests that will be sent to the server together (see
+  // Batch). Useful when posting many messages at once.
+  public Batch newBatch() {
+    return new Batch(source);
+  }
+
   @Override
   public Message newMessage(Uuid author, Uuid conversation, String body) {
 
@@ -51,7 +59,7 @@ public class Controller implements BasicController {
       Uuid.SERIALIZER.write(connection.out(), conversation);
       Serializers.STRING.write(connection.out(), body);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.NEW_MESSAGE_RESPONSE) {
         response = Serializers.nullable(Message.SERIALIZER).read(connection.in());
       } else {
         LOG.error("Response from server failed.");
@@ -75,7 +83,7 @@ public class Controller implements BasicController {
       Serializers.STRING.write(connection.out(), name);
       LOG.info("newUser: Request completed.");
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.NEW_USER_RESPONSE) {
         response = Serializers.nullable(User.SERIALIZER).read(connection.in());
         LOG.info("newUser: Response completed.");
       } else {
@@ -100,7 +108,7 @@ public class Controller implements BasicController {
       Serializers.STRING.write(connection.out(), title);
       Uuid.SERIALIZER.write(connection.out(), owner);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.NEW_CONVERSATION_RESPONSE) {
         response = Serializers.nullable(Conversation.SERIALIZER).read(connection.in());
       } else {
         LOG.error("Response from server failed.");
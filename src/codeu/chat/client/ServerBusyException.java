@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+
+// SERVER BUSY EXCEPTION
+//
+// Thrown when the server turned a request away because it was too busy to run
+// it (see NetworkCode.SERVER_BUSY). The request was not run, so it is safe to
+// send again once "retryAfterMs" has passed.
+public final class ServerBusyException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int retryAfterMs;
+
+  public ServerBusyException(int retryAfterMs) {
+    super(String.format("Server is busy, try again in %dms", retryAfterMs));
+    this.retryAfterMs = retryAfterMs;
+  }
+
+  public int retryAfterMs() {
+    return retryAfterMs;
+  }
+
+  // READ RESPONSE TYPE
+  //
+  // Read the type that starts a response. If the server sent SERVER_BUSY
+  // instead of a response, its hint is read and thrown.
+  static int readResponseType(InputStream in) throws IOException {
+
+    final int type = Serializers.INTEGER.read(in);
+
+    if (type == NetworkCode.SERVER_BUSY) {
+      throw new ServerBusyException(Serializers.INTEGER.read(in));
+    }
+
+    return type;
+  }
+}
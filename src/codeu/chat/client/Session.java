@@ -0,0 +1,415 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Compression;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// SESSION
+//
+// A connection source that sends every request over one long-lived socket
+// instead of opening a new socket for each call. Each request is tagged with
+// an id, so any number of threads can have requests in flight at the same
+// time and the server is free to answer them in any order.
+//
+// To the View and Controller a session looks like any other ConnectionSource.
+// Each call to "connect" returns a connection for a single request. What is
+// written to it is sent when the response is first read (or the connection is
+// closed).
+//
+// If the server does not understand sessions, the session falls back to
+// sending each call on its own connection. These are not pooled, as a server
+// without sessions closes the socket after every response.
+//
+// Some responses are encoded differently depending on the protocol version
+// agreed on when the session was opened. From COMPRESSION_VERSION on the
+// server may compress large responses, which are inflated here before they
+// are handed to the reader. Readers find out which version a response was
+// encoded for with "version(Connection)".
+public final class Session implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(Session.class);
+
+  private final ConnectionSource source;
+  private final Compression compression = new Compression();
+
+  // Guarded by "this".
+  private Connection connection;
+  private Map<Integer, Call> pending;
+  private int nextId = 1;
+  private boolean supported = true;
+  private int version = 0;
+
+  // SESSION
+  //
+  // "framed" must match the server's front end (see ClientConnectionSource).
+  public Session(String host, int port, boolean framed) {
+    this.source = new ClientConnectionSource(host, port, framed);
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    synchronized (this) {
+      if (supported && connection == null) {
+        supported = open();
+      }
+      if (!supported) {
+        return source.connect();
+      }
+    }
+
+    return new Call(this);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (connection != null) {
+        connection.close();
+      }
+    } finally {
+      source.close();
+    }
+  }
+
+  // VERSION
+  //
+  // The protocol version agreed on with the server, or 0 if the session has
+  // not been opened yet or the server does not support sessions.
+  public synchronized int version() {
+    return version;
+  }
+
+  // VERSION
+  //
+  // The protocol version that the response on the connection is encoded for.
+  // Anything that did not go through a session is version 1.
+  public static int version(Connection connection) {
+    return connection instanceof Call ? ((Call) connection).version : 1;
+  }
+
+  private synchronized void send(Call call, byte[] request, int length) throws IOException {
+
+    if (connection == null && !open()) {
+      throw new IOException("Server does not support sessions");
+    }
+
+    final int id = nextId++;
+    pending.put(id, call);
+    call.version = version;
+
+    final ByteArrayOutputStream message = new ByteArrayOutputStream(length + 16);
+
+    if (version >= NetworkCode.COMPACT_VERSION) {
+      Serializers.INTEGER.write(message, NetworkCode.VERSIONED_SESSION_REQUEST);
+      Serializers.INTEGER.write(message, id);
+      Serializers.INTEGER.write(message, version);
+    } else {
+      Serializers.INTEGER.write(message, NetworkCode.SESSION_REQUEST);
+      Serializers.INTEGER.write(message, id);
+    }
+
+    Serializers.INTEGER.write(message, length);
+    message.write(request, 0, length);
+
+    // The whole message goes out in one write so that a flush from the reader
+    // thread cannot split it.
+    try {
+      message.writeTo(connection.out());
+      connection.out().flush();
+    } catch (IOException ex) {
+      pending.remove(id);
+      fail(connection, ex);
+      throw ex;
+    }
+  }
+
+  // OPEN
+  //
+  // Open a new connection to the server and start a session on it. Returns
+  // false if the server does not support sessions.
+  private boolean open() throws IOException {
+
+    final Connection opened = source.connect();
+
+    Serializers.INTEGER.write(opened.out(), NetworkCode.OPEN_SESSION_REQUEST);
+    Serializers.INTEGER.write(opened.out(), NetworkCode.PROTOCOL_VERSION);
+
+    final InputStream reply = opened.in();
+    final int type;
+
+    try {
+      type = ServerBusyException.readResponseType(reply);
+    } catch (IOException ex) {
+      // A busy server may still support sessions, so try again next time.
+      opened.close();
+      throw ex;
+    }
+
+    if (type != NetworkCode.OPEN_SESSION_RESPONSE) {
+      LOG.warning("Server does not support sessions, using one connection per request.");
+      opened.close();
+      return false;
+    }
+
+    version = Serializers.INTEGER.read(reply);
+    connection = opened;
+    pending = new HashMap<>();
+
+    LOG.info("Session opened (version=%d)", version);
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        read(opened);
+      }
+    }, "session-reader");
+
+    reader.setDaemon(true);
+    reader.start();
+
+    return true;
+  }
+
+  private void read(Connection opened) {
+
+    try {
+
+      final InputStream in = opened.in();
+
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type != NetworkCode.SESSION_RESPONSE &&
+            type != NetworkCode.COMPRESSED_SESSION_RESPONSE) {
+          throw new IOException("Unexpected response in session");
+        }
+
+        final int id = Serializers.INTEGER.read(in);
+
+        final byte[] response;
+
+        if (type == NetworkCode.COMPRESSED_SESSION_RESPONSE) {
+          final int length = Serializers.INTEGER.read(in);
+          response = compression.decompress(Serializers.BYTES.read(in), length);
+        } else {
+          response = Serializers.BYTES.read(in);
+        }
+
+        final Call call;
+        synchronized (this) {
+          call = connection == opened ? pending.remove(id) : null;
+        }
+
+        if (call == null) {
+          LOG.warning("Response for unknown request %d", id);
+        } else {
+          call.complete(new ByteArrayInputStream(response), null);
+        }
+      }
+
+    } catch (EOFException ex) {
+      fail(opened, new IOException("Session closed by server"));
+    } catch (IOException ex) {
+      fail(opened, ex);
+    }
+  }
+
+  // Drop the connection and fail everything waiting on it. The next request
+  // will open a new connection.
+  private void fail(Connection failed, IOException error) {
+
+    final Collection<Call> calls;
+
+    synchronized (this) {
+
+      if (connection != failed) {
+        return;
+      }
+
+      LOG.error(error, "Session lost.");
+
+      calls = new ArrayList<>(pending.values());
+      pending = null;
+      connection = null;
+      version = 0;
+    }
+
+    try {
+      failed.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close session connection.");
+    }
+
+    for (final Call call : calls) {
+      call.complete(null, error);
+    }
+  }
+
+  // CALL
+  //
+  // One request and its response. As the whole request is kept until it is
+  // sent, a request the server was too busy to take is sent again once the
+  // server's hint has passed, up to MAX_ATTEMPTS times in all. If the server
+  // is still busy, the reader is given the SERVER_BUSY response.
+  private static final class Call implements Connection {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Session session;
+
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    private volatile CountDownLatch done = new CountDownLatch(1);
+
+    private boolean sent = false;
+    private volatile int version = 1;
+    private volatile InputStream response;
+    private volatile IOException error;
+
+    // The response once it has been checked for SERVER_BUSY. That is decided
+    // once, before the reader sees any of it, so nothing the reader has
+    // started on is ever sent again or swapped out.
+    private InputStream checked;
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        return await().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return await().read(buffer, offset, length);
+      }
+    };
+
+    public Call(Session session) {
+      this.session = session;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return request;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // If nothing was ever read, the request still needs to be sent (there
+      // may be no response that the caller cares about).
+      if (!sent && request.size() > 0) {
+        send();
+      }
+    }
+
+    private void send() throws IOException {
+      sent = true;
+      session.send(this, request.toByteArray(), request.size());
+    }
+
+    private InputStream await() throws IOException {
+
+      if (checked != null) {
+        return checked;
+      }
+
+      for (int attempt = 1; ; attempt++) {
+
+        if (!sent) {
+          send();
+        }
+
+        try {
+          done.await();
+        } catch (InterruptedException ex) {
+          throw new IOException("Interrupted while waiting for response");
+        }
+
+        if (error != null) {
+          throw error;
+        }
+
+        final int retryAfterMs = busy(response);
+
+        if (retryAfterMs < 0 || attempt >= MAX_ATTEMPTS) {
+          checked = response;
+          return checked;
+        }
+
+        LOG.info("Server busy, sending request again in %dms", retryAfterMs);
+
+        try {
+          Thread.sleep(retryAfterMs);
+        } catch (InterruptedException ex) {
+          throw new IOException("Interrupted while waiting to send again");
+        }
+
+        done = new CountDownLatch(1);
+        response = null;
+        sent = false;
+      }
+    }
+
+    // How long the server asked for before the request is sent again, or -1
+    // if the response is not SERVER_BUSY. Must only be given a response that
+    // has not been read from. The response is left as it was.
+    private static int busy(InputStream response) throws IOException {
+
+      if (response.available() < 8) {
+        return -1;
+      }
+
+      response.mark(8);
+
+      final int retryAfterMs = Serializers.INTEGER.read(response) == NetworkCode.SERVER_BUSY ?
+          Serializers.INTEGER.read(response) :
+          -1;
+
+      response.reset();
+
+      return retryAfterMs;
+    }
+
+    public void complete(InputStream response, IOException error) {
+      this.response = response;
+      this.error = error;
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// SUBSCRIPTION
+//
+// A connection that the server keeps open to push every new message in one
+// conversation to the client, so that the client does not need to poll for
+// them. Messages are handed to the listener on the subscription's own thread
+// in the order the server added them.
+//
+// If the server drops the subscription (for example because the client was
+// reading too slowly) the listener is told through "onClosed" and the client
+// should catch up with a normal request and subscribe again.
+public final class Subscription implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  public interface Listener {
+
+    void onMessage(Message message);
+
+    // Called once the subscription has ended, whether it was closed by the
+    // client or the server.
+    void onClosed();
+
+  }
+
+  private final Uuid conversation;
+  private final Connection connection;
+  private final Listener listener;
+
+  private volatile boolean closed = false;
+
+  private Subscription(Uuid conversation, Connection connection, Listener listener) {
+    this.conversation = conversation;
+    this.connection = connection;
+    this.listener = listener;
+  }
+
+  // OPEN
+  //
+  // Subscribe to the conversation. Returns null if the server does not know
+  // the conversation.
+  static Subscription open(ConnectionSource source,
+                           Uuid conversation,
+                           Listener listener) throws IOException {
+
+    final Connection connection = source.connect();
+
+    try {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+
+      if (ServerBusyException.readResponseType(connection.in()) != NetworkCode.SUBSCRIBE_RESPONSE ||
+          !Serializers.BOOLEAN.read(connection.in())) {
+        connection.close();
+        return null;
+      }
+
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+
+    final Subscription subscription = new Subscription(conversation, connection, listener);
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        subscription.read();
+      }
+    }, "subscription");
+
+    reader.setDaemon(true);
+    reader.start();
+
+    return subscription;
+  }
+
+  public Uuid conversation() {
+    return conversation;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    connection.close();
+  }
+
+  private void read() {
+
+    try {
+      for (int type = Serializers.INTEGER.read(connection.in());
+           type != NetworkCode.NO_MESSAGE;
+           type = Serializers.INTEGER.read(connection.in())) {
+
+        if (type != NetworkCode.MESSAGE_PUSH) {
+          throw new IOException("Unexpected push from server");
+        }
+
+        listener.onMessage(Message.SERIALIZER.read(connection.in()));
+      }
+
+      LOG.info("Subscription to %s ended by server.", conversation);
+
+    } catch (EOFException ex) {
+      LOG.info("Subscription to %s closed by server.", conversation);
+    } catch (Exception ex) {
+      if (!closed) {
+        LOG.error(ex, "Subscription to %s lost.", conversation);
+      }
+    }
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close subscription.");
+    }
+
+    listener.onClosed();
+  }
+}
@@ -41,9 +41,43 @@ public final class View implements BasicView, LogicalView{
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
   private final ConnectionSource source;
+  private final ConnectionSource subscriptions;
 
   public View(ConnectionSource source) {
+    this(source, source);
+  }
+
+  // Subscriptions hold their connection open, so they need a source that
+  // gives out real connections. A Session does not, it gives a connection per
+  // request, so a session backed view needs a second source for them.
+  public View(ConnectionSource source, ConnectionSource subscriptions) {
     this.source = source;
+    this.subscriptions = subscriptions;
+  }
+
+  // NEW BATCH
+  //
+  // Start a batch of requests that will be sent to the server together (see
+  // Batch). Useful for reading everything a client needs when it starts.
+  public Batch newBatch() {
+    return new Batch(source);
+  }
+
+  // SUBSCRIBE
+  //
+  // Have the server push every new message in the conversation to the listener
+  // until the subscription is closed (see Subscription). Returns null if the
+  // subscription could not be made.
+  public Subscription subscribe(Uuid conversation, Subscription.Listener listener) {
+
+    try {
+      return Subscription.open(subscriptions, conversation, listener);
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
   }
 
   @Override
@@ -56,7 +90,7 @@ public final class View implements BasicView, LogicalView{
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_BY_ID_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_USERS_BY_ID_RESPONSE) {
         users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -79,7 +113,7 @@ public final class View implements BasicView, LogicalView{
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
         summaries.addAll(Serializers.collection(ConversationSummary.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -103,7 +137,7 @@ public final class View implements BasicView, LogicalView{
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
         conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -126,8 +160,8 @@ public final class View implements BasicView, LogicalView{
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
+        messages.addAll(Message.collectionSerializer(Session.version(connection)).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -148,7 +182,7 @@ public final class View implements BasicView, LogicalView{
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USER_GENERATION_REQUEST);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
         generation = Uuid.SERIALIZER.read(connection.in());
       } else {
         LOG.error("Response from server failed");
@@ -171,7 +205,7 @@ public final class View implements BasicView, LogicalView{
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_EXCLUDING_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
         users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -195,7 +229,7 @@ public final class View implements BasicView, LogicalView{
       Time.SERIALIZER.write(connection.out(), start);
       Time.SERIALIZER.write(connection.out(), end);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
         conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -218,7 +252,31 @@ public final class View implements BasicView, LogicalView{
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
       Serializers.STRING.write(connection.out(), filter);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
+        conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return conversations;
+  }
+
+  @Override
+  public Collection<Conversation> findConversations(String text, int match) {
+
+    final Collection<Conversation> conversations = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.FIND_CONVERSATIONS_REQUEST);
+      Serializers.INTEGER.write(connection.out(), match);
+      Serializers.STRING.write(connection.out(), text);
+
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.FIND_CONVERSATIONS_RESPONSE) {
         conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -231,6 +289,30 @@ public final class View implements BasicView, LogicalView{
     return conversations;
   }
 
+  @Override
+  public Collection<User> findUsers(String text, int match) {
+
+    final Collection<User> users = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.FIND_USERS_REQUEST);
+      Serializers.INTEGER.write(connection.out(), match);
+      Serializers.STRING.write(connection.out(), text);
+
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.FIND_USERS_RESPONSE) {
+        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return users;
+  }
+
   @Override
   public Collection<Message> getMessages(Uuid conversation, Time start, Time end) {
 
@@ -239,11 +321,12 @@ public final class View implements BasicView, LogicalView{
     try (final Connection connection = source.connect()) {
 
       Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
       Time.SERIALIZER.write(connection.out(), start);
       Time.SERIALIZER.write(connection.out(), end);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
+        messages.addAll(Message.collectionSerializer(Session.version(connection)).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -267,8 +350,44 @@ public final class View implements BasicView, LogicalView{
       Uuid.SERIALIZER.write(connection.out(), rootMessage);
       Serializers.INTEGER.write(connection.out(), range);
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE) {
+        messages.addAll(Message.collectionSerializer(Session.version(connection)).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  @Override
+  public Collection<Message> searchMessages(String query,
+                                            boolean phrase,
+                                            Uuid conversation,
+                                            Time start,
+                                            Time end,
+                                            int offset,
+                                            int limit) {
+
+    final Collection<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Serializers.STRING.write(connection.out(), query);
+      Serializers.BOOLEAN.write(connection.out(), phrase);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Time.SERIALIZER.write(connection.out(), start);
+      Time.SERIALIZER.write(connection.out(), end);
+      Serializers.INTEGER.write(connection.out(), offset);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (ServerBusyException.readResponseType(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Message.collectionSerializer(Session.version(connection)).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
       }
@@ -0,0 +1,298 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.util.Compact;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// COLUMNAR MESSAGES
+//
+// Encodes a list of messages a column at a time rather than a message at a
+// time. A list of messages is usually a run of one conversation, so each
+// column is very regular on its own:
+//
+//   - Authors are few, so each distinct author is written once in a
+//     dictionary and every message only writes its index in it.
+//   - Ids are written in the compact encoding (see Compact), so a run of ids
+//     takes a byte or two each.
+//   - A message's "previous" is usually the id of the message before it in the
+//     list, and its "next" the id of the message after it. Those links are
+//     implied by a bit each and only links that break the run are written.
+//   - Times are written as the change in the gap between messages (delta of
+//     delta), so messages sent at a steady pace take a byte each.
+//   - The lengths of all the contents are written before all of their bytes.
+//
+// Layout:
+//
+//   count
+//   dictionary size, dictionary Uuids, author index per message
+//   id per message
+//   link bits (two per message, packed), links that are not implied
+//   first time, first gap, change in gap per message after that
+//   content length per message, content bytes
+//
+// Used from NetworkCode.COLUMNAR_VERSION on (see Message.collectionSerializer).
+public final class ColumnarMessages {
+
+  // Every message takes at least a byte, so no frame can hold more than this
+  // many. Checked before any arrays are made for them.
+  private static final int MAX_COUNT = 16 * 1024 * 1024;
+
+  private static final int PREVIOUS_IMPLIED = 1;
+  private static final int NEXT_IMPLIED = 2;
+
+  public static final Serializer<Collection<Message>> SERIALIZER =
+      new Serializer<Collection<Message>>() {
+
+    @Override
+    public void write(OutputStream out, Collection<Message> value) throws IOException {
+
+      final List<Message> messages = new ArrayList<>(value);
+      final int count = messages.size();
+
+      final Compact.Writer header = new Compact.Writer(out);
+      header.writeInt(count);
+
+      // Authors
+
+      final Map<Uuid, Integer> authorIndex = new HashMap<>();
+      final List<Uuid> authors = new ArrayList<>();
+
+      for (final Message message : messages) {
+        if (!authorIndex.containsKey(message.author)) {
+          authorIndex.put(message.author, authors.size());
+          authors.add(message.author);
+        }
+      }
+
+      header.writeInt(authors.size());
+
+      final Compact.Writer dictionary = new Compact.Writer(out);
+      for (final Uuid author : authors) {
+        dictionary.writeUuid(author);
+      }
+
+      for (final Message message : messages) {
+        header.writeInt(authorIndex.get(message.author));
+      }
+
+      // Ids
+
+      final Compact.Writer ids = new Compact.Writer(out);
+      for (final Message message : messages) {
+        ids.writeUuid(message.id);
+      }
+
+      // Links
+
+      final byte[] bits = new byte[(2 * count + 7) / 8];
+
+      for (int i = 0; i < count; i++) {
+        final Message message = messages.get(i);
+        if (i > 0 && equal(message.previous, messages.get(i - 1).id)) {
+          set(bits, i, PREVIOUS_IMPLIED);
+        }
+        if (i + 1 < count && equal(message.next, messages.get(i + 1).id)) {
+          set(bits, i, NEXT_IMPLIED);
+        }
+      }
+
+      header.write(bits);
+
+      final Compact.Writer links = new Compact.Writer(out);
+      for (int i = 0; i < count; i++) {
+        final Message message = messages.get(i);
+        if (!isSet(bits, i, PREVIOUS_IMPLIED)) {
+          links.writeUuid(message.previous);
+        }
+        if (!isSet(bits, i, NEXT_IMPLIED)) {
+          links.writeUuid(message.next);
+        }
+      }
+
+      // Times
+
+      // Starting from zero means that the first value written is the first
+      // time and the second is the first gap.
+      long lastTime = 0;
+      long lastGap = 0;
+
+      for (int i = 0; i < count; i++) {
+        final long time = messages.get(i).creation.inMs();
+        final long gap = time - lastTime;
+        header.writeLong(gap - lastGap);
+        lastGap = i == 0 ? 0 : gap;
+        lastTime = time;
+      }
+
+      // Content
+
+      final byte[][] contents = new byte[count][];
+
+      for (int i = 0; i < count; i++) {
+        contents[i] = messages.get(i).content.getBytes();
+        header.writeInt(contents[i].length);
+      }
+
+      for (final byte[] content : contents) {
+        header.write(content);
+      }
+    }
+
+    @Override
+    public Collection<Message> read(InputStream in) throws IOException {
+
+      final Compact.Reader header = new Compact.Reader(in);
+
+      final int count = header.readInt();
+
+      if (count < 0 || count > MAX_COUNT) {
+        throw new IOException(String.format("Bad message count %d", count));
+      }
+
+      // Authors
+
+      final int authorCount = header.readInt();
+
+      if (authorCount < 0 || authorCount > count) {
+        throw new IOException(String.format("Bad author count %d", authorCount));
+      }
+
+      final Compact.Reader dictionary = new Compact.Reader(in);
+      final List<Uuid> authors = new ArrayList<>(authorCount);
+
+      for (int i = 0; i < authorCount; i++) {
+        authors.add(dictionary.readUuid());
+      }
+
+      final Uuid[] author = new Uuid[count];
+
+      for (int i = 0; i < count; i++) {
+        final int index = header.readInt();
+        if (index < 0 || index >= authorCount) {
+          throw new IOException(String.format("Bad author index %d", index));
+        }
+        author[i] = authors.get(index);
+      }
+
+      // Ids
+
+      final Compact.Reader ids = new Compact.Reader(in);
+      final Uuid[] id = new Uuid[count];
+
+      for (int i = 0; i < count; i++) {
+        id[i] = ids.readUuid();
+      }
+
+      // Links
+
+      final byte[] bits = new byte[(2 * count + 7) / 8];
+      header.readFully(bits);
+
+      final Compact.Reader links = new Compact.Reader(in);
+      final Uuid[] previous = new Uuid[count];
+      final Uuid[] next = new Uuid[count];
+
+      for (int i = 0; i < count; i++) {
+
+        if (isSet(bits, i, PREVIOUS_IMPLIED)) {
+          if (i == 0) {
+            throw new IOException("First message can not have an implied previous link");
+          }
+          previous[i] = id[i - 1];
+        } else {
+          previous[i] = links.readUuid();
+        }
+
+        if (isSet(bits, i, NEXT_IMPLIED)) {
+          if (i + 1 == count) {
+            throw new IOException("Last message can not have an implied next link");
+          }
+          next[i] = id[i + 1];
+        } else {
+          next[i] = links.readUuid();
+        }
+      }
+
+      // Times
+
+      final long[] time = new long[count];
+      long lastTime = 0;
+      long lastGap = 0;
+
+      for (int i = 0; i < count; i++) {
+        final long gap = lastGap + header.readLong();
+        time[i] = lastTime + gap;
+        lastGap = i == 0 ? 0 : gap;
+        lastTime = time[i];
+      }
+
+      // Content
+
+      final int[] length = new int[count];
+
+      for (int i = 0; i < count; i++) {
+        length[i] = header.readInt();
+        if (length[i] < 0) {
+          throw new IOException(String.format("Bad content length %d", length[i]));
+        }
+      }
+
+      final Collection<Message> messages = new ArrayList<>(count);
+
+      for (int i = 0; i < count; i++) {
+
+        final byte[] content = new byte[length[i]];
+        header.readFully(content);
+
+        messages.add(new Message(id[i],
+                                 next[i],
+                                 previous[i],
+                                 Time.fromMs(time[i]),
+                                 author[i],
+                                 new String(content)));
+      }
+
+      return messages;
+    }
+  };
+
+  private ColumnarMessages() { }
+
+  private static boolean equal(Uuid a, Uuid b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static void set(byte[] bits, int message, int flag) {
+    final int bit = 2 * message + (flag == PREVIOUS_IMPLIED ? 0 : 1);
+    bits[bit / 8] |= 1 << (bit % 8);
+  }
+
+  private static boolean isSet(byte[] bits, int message, int flag) {
+    final int bit = 2 * message + (flag == PREVIOUS_IMPLIED ? 0 : 1);
+    return (bits[bit / 8] & (1 << (bit % 8))) != 0;
+  }
+}
@@ -17,9 +17,12 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -62,6 +65,58 @@ public final class Conversation {
     }
   };
 
+  public static final BufferSerializer<Conversation> BUFFER_SERIALIZER =
+      new BufferSerializer<Conversation>() {
+
+    private final BufferSerializer<Collection<Uuid>> usersSerializer =
+        BufferSerializers.collection(Uuid.BUFFER_SERIALIZER);
+
+    @Override
+    public int size(Conversation value) throws IOException {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.owner) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             BufferSerializers.STRING.size(value.title) +
+             usersSerializer.size(value.users) +
+             Uuid.BUFFER_SERIALIZER.size(value.firstMessage) +
+             Uuid.BUFFER_SERIALIZER.size(value.lastMessage);
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, Conversation value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      Uuid.BUFFER_SERIALIZER.write(out, value.owner);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+      BufferSerializers.STRING.write(out, value.title);
+      usersSerializer.write(out, value.users);
+      Uuid.BUFFER_SERIALIZER.write(out, value.firstMessage);
+      Uuid.BUFFER_SERIALIZER.write(out, value.lastMessage);
+
+    }
+
+    @Override
+    public Conversation read(ByteBuffer in) throws IOException {
+
+      final Conversation value = new Conversation(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Time.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in)
+      );
+
+      value.users.addAll(usersSerializer.read(in));
+
+      value.firstMessage = Uuid.BUFFER_SERIALIZER.read(in);
+      value.lastMessage = Uuid.BUFFER_SERIALIZER.read(in);
+
+      return value;
+
+    }
+  };
+
   public final ConversationSummary summary;
 
   public final Uuid id;
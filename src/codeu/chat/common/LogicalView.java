@@ -48,9 +48,24 @@ public interface LogicalView {
   //
   //   Get a collection of conversations given a regex expression that will be
   //   used against every conversation's title. All conversations whose title
-  //   matches the given regex expression will be returned.
+  //   matches the given regex expression will be returned. The server only
+  //   supports part of the regex syntax (see LinearPattern) and finds nothing
+  //   for expressions it does not support.
   Collection<Conversation> getConversations(String filter);
 
+  // FIND CONVERSATIONS
+  //
+  //   Get the conversations whose title matches the given text in the way
+  //   given by "match" (see TextMatch). Finding with TextMatch.REGEX is the
+  //   same as getConversations(filter).
+  Collection<Conversation> findConversations(String text, int match);
+
+  // FIND USERS
+  //
+  //   Get the users whose name matches the given text in the way given by
+  //   "match" (see TextMatch).
+  Collection<User> findUsers(String text, int match);
+
   // GET MESSAGES
   //
   //   Get all messages from a single conversation whose time value falls
@@ -69,4 +84,21 @@ public interface LogicalView {
   //   no messages will be returned.
   Collection<Message> getMessages(Uuid rootMessage, int range);
 
+  // SEARCH MESSAGES
+  //
+  //   Get the messages whose content has every word in the query, newest first.
+  //   If phrase is true, the words must also appear next to each other in the
+  //   same order. Words are compared without case. If the conversation is not
+  //   Uuid.NULL only messages in that conversation are searched. Only messages
+  //   created between the start and end times are returned. The first "offset"
+  //   matches are skipped and no more than "limit" are returned (the server
+  //   may return fewer).
+  Collection<Message> searchMessages(String query,
+                                     boolean phrase,
+                                     Uuid conversation,
+                                     Time start,
+                                     Time end,
+                                     int offset,
+                                     int limit);
+
 }
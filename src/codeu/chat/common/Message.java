@@ -17,7 +17,13 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
+import codeu.chat.util.Compact;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -54,6 +60,110 @@ public final class Message {
     }
   };
 
+  public static final BufferSerializer<Message> BUFFER_SERIALIZER = new BufferSerializer<Message>() {
+
+    @Override
+    public int size(Message value) throws IOException {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             Uuid.BUFFER_SERIALIZER.size(value.next) +
+             Uuid.BUFFER_SERIALIZER.size(value.previous) +
+             Time.BUFFER_SERIALIZER.size(value.creation) +
+             Uuid.BUFFER_SERIALIZER.size(value.author) +
+             BufferSerializers.STRING.size(value.content);
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, Message value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      Uuid.BUFFER_SERIALIZER.write(out, value.next);
+      Uuid.BUFFER_SERIALIZER.write(out, value.previous);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+      Uuid.BUFFER_SERIALIZER.write(out, value.author);
+      BufferSerializers.STRING.write(out, value.content);
+
+    }
+
+    @Override
+    public Message read(ByteBuffer in) throws IOException {
+
+      return new Message(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          Time.BUFFER_SERIALIZER.read(in),
+          Uuid.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in)
+      );
+
+    }
+  };
+
+  // A list of messages in the compact encoding (see Compact). Messages listed
+  // together are usually from the same conversation, so their ids, links,
+  // authors and times are close to each other and shrink well.
+  public static final Serializer<Collection<Message>> COMPACT_COLLECTION =
+      new Serializer<Collection<Message>>() {
+
+    @Override
+    public void write(OutputStream out, Collection<Message> value) throws IOException {
+
+      final Compact.Writer writer = new Compact.Writer(out);
+
+      writer.writeInt(value.size());
+
+      for (final Message message : value) {
+        writer.writeUuid(message.id);
+        writer.writeUuid(message.next);
+        writer.writeUuid(message.previous);
+        writer.writeTime(message.creation);
+        writer.writeUuid(message.author);
+        writer.writeString(message.content);
+      }
+    }
+
+    @Override
+    public Collection<Message> read(InputStream in) throws IOException {
+
+      final Compact.Reader reader = new Compact.Reader(in);
+
+      final int size = reader.readInt();
+
+      if (size < 0) {
+        throw new IOException(String.format("Bad message count %d", size));
+      }
+
+      final Collection<Message> messages = new ArrayList<>(Math.min(size, 1024));
+
+      for (int i = 0; i < size; i++) {
+        messages.add(new Message(
+            reader.readUuid(),
+            reader.readUuid(),
+            reader.readUuid(),
+            reader.readTime(),
+            reader.readUuid(),
+            reader.readString()));
+      }
+
+      return messages;
+    }
+  };
+
+  private static final Serializer<Collection<Message>> COLLECTION =
+      Serializers.collection(SERIALIZER);
+
+  // COLLECTION SERIALIZER
+  //
+  // How a list of messages is sent at the given protocol version.
+  public static Serializer<Collection<Message>> collectionSerializer(int version) {
+    if (version >= NetworkCode.COLUMNAR_VERSION) {
+      return ColumnarMessages.SERIALIZER;
+    }
+    return version >= NetworkCode.COMPACT_VERSION ? COMPACT_COLLECTION : COLLECTION;
+  }
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
@@ -47,5 +47,54 @@ public final class NetworkCode {
       RELAY_READ_REQUEST = 27,
       RELAY_READ_RESPONSE = 28,
       RELAY_WRITE_REQUEST = 29,
-      RELAY_WRITE_RESPONSE = 30;
+      RELAY_WRITE_RESPONSE = 30,
+      OPEN_SESSION_REQUEST = 31,
+      OPEN_SESSION_RESPONSE = 32,
+      SESSION_REQUEST = 33,
+      SESSION_RESPONSE = 34,
+      BATCH_REQUEST = 35,
+      BATCH_RESPONSE = 36,
+      SUBSCRIBE_REQUEST = 37,
+      SUBSCRIBE_RESPONSE = 38,
+      MESSAGE_PUSH = 39,
+      // Sent instead of a response when the server is too busy to take the
+      // request. It is followed by how many milliseconds the client should
+      // wait before trying again.
+      SERVER_BUSY = 40,
+      // A SESSION_REQUEST with the session's protocol version after the id.
+      // The server can not always tie a request to the session it came from
+      // (the selector front end hands out each frame on its own), so the
+      // version is sent with every request.
+      VERSIONED_SESSION_REQUEST = 41,
+      // A SESSION_RESPONSE whose response has been deflated. The id is followed
+      // by the length of the response before it was compressed and then the
+      // compressed bytes (see COMPRESSION_VERSION).
+      COMPRESSED_SESSION_RESPONSE = 42,
+      // Followed by the query, whether it is a phrase, the conversation to
+      // search (or Uuid.NULL for all of them), the start and end times, and
+      // the offset and limit of the page of results.
+      SEARCH_MESSAGES_REQUEST = 43,
+      SEARCH_MESSAGES_RESPONSE = 44,
+      // Followed by how to match (see TextMatch) and then the text.
+      FIND_CONVERSATIONS_REQUEST = 45,
+      FIND_CONVERSATIONS_RESPONSE = 46,
+      FIND_USERS_REQUEST = 47,
+      FIND_USERS_RESPONSE = 48;
+
+  // The newest protocol version this code understands. It is sent when
+  // opening a session and both sides use the lower of the two versions.
+  public static final int PROTOCOL_VERSION = 4;
+
+  // From this version on, lists of messages are sent in the compact encoding
+  // (see Message.collectionSerializer) and session requests are sent as
+  // VERSIONED_SESSION_REQUEST.
+  public static final int COMPACT_VERSION = 2;
+
+  // From this version on, large session responses may be sent as
+  // COMPRESSED_SESSION_RESPONSE (see Compression).
+  public static final int COMPRESSION_VERSION = 3;
+
+  // From this version on, lists of messages are sent in the columnar encoding
+  // (see ColumnarMessages) instead of the compact one.
+  public static final int COLUMNAR_VERSION = 4;
 }
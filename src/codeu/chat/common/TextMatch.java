@@ -0,0 +1,34 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+// TEXT MATCH
+//
+//   The ways a string can be matched against user names and conversation
+//   titles when finding users or conversations (see LogicalView).
+public final class TextMatch {
+
+  // The string is a regular expression that must match the whole text.
+  public static final int REGEX = 0;
+
+  // The text must contain the string, ignoring case.
+  public static final int SUBSTRING = 1;
+
+  // The text must start with the string, ignoring case.
+  public static final int PREFIX = 2;
+
+  private TextMatch() { }
+
+}
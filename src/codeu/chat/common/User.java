@@ -17,7 +17,10 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.BufferSerializer;
+import codeu.chat.util.BufferSerializers;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -48,6 +51,38 @@ public final class User {
     }
   };
 
+  public static final BufferSerializer<User> BUFFER_SERIALIZER = new BufferSerializer<User>() {
+
+    @Override
+    public int size(User value) throws IOException {
+
+      return Uuid.BUFFER_SERIALIZER.size(value.id) +
+             BufferSerializers.STRING.size(value.name) +
+             Time.BUFFER_SERIALIZER.size(value.creation);
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, User value) throws IOException {
+
+      Uuid.BUFFER_SERIALIZER.write(out, value.id);
+      BufferSerializers.STRING.write(out, value.name);
+      Time.BUFFER_SERIALIZER.write(out, value.creation);
+
+    }
+
+    @Override
+    public User read(ByteBuffer in) throws IOException {
+
+      return new User(
+          Uuid.BUFFER_SERIALIZER.read(in),
+          BufferSerializers.STRING.read(in),
+          Time.BUFFER_SERIALIZER.read(in)
+      );
+
+    }
+  };
+
   public final Uuid id;
   public final String name;
   public final Time creation;
@@ -17,10 +17,10 @@ package codeu.chat.relay;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Relay;
@@ -101,8 +101,11 @@ public final class Server implements Relay {
 
   }
 
+  // The relay may be handling many connections at once (see RelayMain). The
+  // history and the id generator are guarded by "history", the team secrets
+  // are in a concurrent map as they are read on every call.
   private final Queue<Relay.Bundle> history = new LinkedList<>();
-  private final Map<Uuid, byte[]> teamSecrets = new HashMap<>();
+  private final ConcurrentMap<Uuid, byte[]> teamSecrets = new ConcurrentHashMap<>();
 
   private final int maxHistory;
   private final int maxRead;
@@ -146,11 +149,7 @@ public final class Server implements Relay {
 
     LOG.info("Adding team to relay %s", id);
 
-    final boolean open = teamSecrets.get(id) == null;
-
-    if (open) {
-      teamSecrets.put(id, secret);
-    }
+    final boolean open = teamSecrets.putIfAbsent(id, secret) == null;
 
     LOG.info(open ?
              "Adding team was successful" :
@@ -180,17 +179,20 @@ public final class Server implements Relay {
           conversation.id(),
           message.id());
 
-      if (history.size() >= maxHistory) {
-         history.remove();
-      }
+      synchronized (history) {
 
-      return history.offer(new Bundle(
-          idGenerator.make(),
-          Time.now(),
-          teamId,
-          user,
-          conversation,
-          message));
+        if (history.size() >= maxHistory) {
+           history.remove();
+        }
+
+        return history.offer(new Bundle(
+            idGenerator.make(),
+            Time.now(),
+            teamId,
+            user,
+            conversation,
+            message));
+      }
     } else {
 
       LOG.warning(
@@ -216,17 +218,19 @@ public final class Server implements Relay {
           range,
           maxRead);
 
-      for (final Relay.Bundle message : history) {
+      synchronized (history) {
+        for (final Relay.Bundle message : history) {
 
-        // Only add a message if there is room. We cannot stop
-        // searching in case we see the root later on.
-        if (found.size() < Math.min(range, maxRead)) {
-          found.add(message);
-        }
+          // Only add a message if there is room. We cannot stop
+          // searching in case we see the root later on.
+          if (found.size() < Math.min(range, maxRead)) {
+            found.add(message);
+          }
 
-        // If the start is found, drop all previous messages.
-        if (message.id().equals(root)) {
-          found.clear();
+          // If the start is found, drop all previous messages.
+          if (message.id().equals(root)) {
+            found.clear();
+          }
         }
       }
 
@@ -32,10 +32,18 @@ public final class Controller implements RawController, BasicController {
 
   private final Model model;
   private final Uuid.Generator uuidGenerator;
+  private final Subscriptions subscriptions;
 
   public Controller(Uuid serverId, Model model) {
+    this(serverId, model, new Subscriptions());
+  }
+
+  // Every new message, including those from the relay, is published to the
+  // subscribers of its conversation.
+  public Controller(Uuid serverId, Model model, Subscriptions subscriptions) {
     this.model = model;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
+    this.subscriptions = subscriptions;
   }
 
   @Override
@@ -64,7 +72,7 @@ public final class Controller implements RawController, BasicController {
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
       message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
+      model.add(foundConversation, message);
       LOG.info("Message added: %s", message.id);
 
       // Find and update the previous "last" message so that it's "next" value
@@ -97,6 +105,8 @@ public final class Controller implements RawController, BasicController {
       if (!foundConversation.users.contains(foundUser)) {
         foundConversation.users.add(foundUser.id);
       }
+
+      subscriptions.publish(foundConversation.id, message);
     }
 
     return message;
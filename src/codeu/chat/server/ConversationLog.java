@@ -0,0 +1,127 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CONVERSATION LOG
+//
+// The messages of one conversation in the order they were added to it, kept
+// in an array that is only ever appended to. Finding where a time window
+// starts is a binary search instead of a walk along the "next" links from the
+// first message, and the last few messages are found by position.
+//
+// Messages from the relay can arrive out of time order, so the log also keeps
+// the latest creation time seen up to each position. Searching that column
+// finds the first message at or after a time, the same message a walk from the
+// start would stop at.
+//
+// Each message's place in its log is kept as a Position so that reading the
+// messages around one is a copy of part of the array rather than a lookup per
+// message.
+//
+// Guarded by the model's lock like everything else in the model.
+final class ConversationLog {
+
+  private static final int MIN_CAPACITY = 8;
+
+  public final Uuid conversation;
+
+  private Message[] messages = new Message[MIN_CAPACITY];
+  private long[] latest = new long[MIN_CAPACITY];
+  private int size = 0;
+
+  public ConversationLog(Uuid conversation) {
+    this.conversation = conversation;
+  }
+
+  // APPEND
+  //
+  // Add the message to the end of the conversation. Returns its position.
+  public int append(Message message) {
+
+    if (size == messages.length) {
+      messages = Arrays.copyOf(messages, 2 * size);
+      latest = Arrays.copyOf(latest, 2 * size);
+    }
+
+    final long ms = message.creation.inMs();
+
+    messages[size] = message;
+    latest[size] = size == 0 ? ms : Math.max(ms, latest[size - 1]);
+
+    return size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Message get(int position) {
+    return messages[position];
+  }
+
+  // SLICE
+  //
+  // A copy of the messages from position "from" up to, but not including,
+  // position "to". Both are clamped to the log.
+  public List<Message> slice(int from, int to) {
+    from = Math.max(0, from);
+    to = Math.min(size, to);
+    return Arrays.asList(Arrays.copyOfRange(messages, from, Math.max(from, to)));
+  }
+
+  // FIRST AT OR AFTER
+  //
+  // The position of the first message created at or after "start", or the size
+  // of the log if there is none.
+  public int firstAtOrAfter(Time start) {
+
+    final long ms = start.inMs();
+
+    int low = 0;
+    int high = size;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (latest[middle] < ms) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+
+  // POSITION
+  //
+  // Where a message is: which log it is in and at what position.
+  public static final class Position {
+
+    public final ConversationLog log;
+    public final int index;
+
+    public Position(ConversationLog log, int index) {
+      this.log = log;
+      this.index = index;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Metrics;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// ENCODED CACHE
+//
+// Keeps the encoded bytes of users, conversations and messages so that a
+// response listing them can be written by copying bytes rather than encoding
+// every object again. Bytes are encoded the first time they are needed and
+// the least recently used are dropped once the cache holds more than its
+// limit.
+//
+// Most of what is cached never changes once it is made. The parts that do
+// change are checked on every lookup rather than relying on whoever changes
+// them to say so:
+//
+//   - A message's "next" changes when a message is added after it.
+//   - A conversation's "firstMessage", "lastMessage" and "users" only change
+//     when a message is added to it, which always changes "lastMessage".
+//
+// So a cached message is only used if its "next" is the same object as when
+// it was encoded, and a cached conversation if its "lastMessage" is. Entries
+// also remember the object they were made from, so a different object with
+// the same id is never given another's bytes.
+//
+// Callers must hold the model's read lock (or write lock) while writing, as
+// for any other use of the model.
+final class EncodedCache {
+
+  private static final int USER = 0;
+  private static final int SUMMARY = 1;
+  private static final int CONVERSATION = 2;
+  private static final int MESSAGE = 3;
+
+  // A rough count of the memory used by an entry besides its bytes.
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final long maxBytes;
+
+  // Guarded by "this". In access order, so the eldest entry is the least
+  // recently used.
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+  private long bytes = 0;
+
+  private final Metrics.Counter hits = Metrics.counter("server.encoded.hits");
+  private final Metrics.Counter misses = Metrics.counter("server.encoded.misses");
+
+  public EncodedCache(long maxBytes) {
+
+    this.maxBytes = maxBytes;
+
+    Metrics.gauge("server.encoded.bytes", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        synchronized (EncodedCache.this) {
+          return bytes;
+        }
+      }
+    });
+  }
+
+  // The "write" methods write exactly what the SERIALIZER of each type would.
+
+  public void writeUsers(OutputStream out, Collection<User> users) throws IOException {
+    Serializers.INTEGER.write(out, users.size());
+    for (final User user : users) {
+      out.write(encode(USER, user.id, user, null, User.SERIALIZER));
+    }
+  }
+
+  public void writeSummaries(OutputStream out, Collection<ConversationSummary> summaries)
+      throws IOException {
+    Serializers.INTEGER.write(out, summaries.size());
+    for (final ConversationSummary summary : summaries) {
+      out.write(encode(SUMMARY, summary.id, summary, null, ConversationSummary.SERIALIZER));
+    }
+  }
+
+  public void writeConversations(OutputStream out, Collection<Conversation> conversations)
+      throws IOException {
+    Serializers.INTEGER.write(out, conversations.size());
+    for (final Conversation conversation : conversations) {
+      out.write(encode(CONVERSATION,
+                       conversation.id,
+                       conversation,
+                       conversation.lastMessage,
+                       Conversation.SERIALIZER));
+    }
+  }
+
+  public void writeMessages(OutputStream out, Collection<Message> messages) throws IOException {
+    Serializers.INTEGER.write(out, messages.size());
+    for (final Message message : messages) {
+      out.write(encode(MESSAGE, message.id, message, message.next, Message.SERIALIZER));
+    }
+  }
+
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private <T> byte[] encode(int type,
+                            Uuid id,
+                            T value,
+                            Object stamp,
+                            Serializer<T> serializer) throws IOException {
+
+    final Key key = new Key(type, id);
+
+    synchronized (this) {
+      final Entry entry = entries.get(key);
+      if (entry != null && entry.owner == value && entry.stamp == stamp) {
+        hits.increment();
+        return entry.bytes;
+      }
+    }
+
+    misses.increment();
+
+    // Encoding is done outside of the lock so that readers do not wait on
+    // each other. Two readers may both encode the same object, which is
+    // harmless.
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    final byte[] encoded = out.toByteArray();
+
+    final long cost = encoded.length + ENTRY_OVERHEAD;
+
+    // Something that would take up a large part of the cache on its own
+    // would push out many small entries that are more likely to be reused.
+    if (cost > maxBytes / 16) {
+      return encoded;
+    }
+
+    synchronized (this) {
+
+      final Entry replaced = entries.put(key, new Entry(value, stamp, encoded));
+
+      bytes += cost;
+      if (replaced != null) {
+        bytes -= replaced.bytes.length + ENTRY_OVERHEAD;
+      }
+
+      final Iterator<Entry> eldest = entries.values().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        bytes -= eldest.next().bytes.length + ENTRY_OVERHEAD;
+        eldest.remove();
+      }
+    }
+
+    return encoded;
+  }
+
+  private static final class Key {
+
+    final int type;
+    final Uuid id;
+
+    Key(int type, Uuid id) {
+      this.type = type;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key &&
+             type == ((Key) other).type &&
+             Objects.equals(id, ((Key) other).id);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Objects.hashCode(id) + type;
+    }
+  }
+
+  private static final class Entry {
+
+    final Object owner;
+    final Object stamp;
+    final byte[] bytes;
+
+    Entry(Object owner, Object stamp, byte[] bytes) {
+      this.owner = owner;
+      this.stamp = stamp;
+      this.bytes = bytes;
+    }
+  }
+}
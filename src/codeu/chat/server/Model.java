@@ -14,7 +14,11 @@
 
 package codeu.chat.server;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
@@ -23,69 +27,171 @@ import codeu.chat.common.Message;
 import codeu.chat.common.User;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.Store;
 import codeu.chat.util.store.StoreAccessor;
+import codeu.chat.util.store.TimeSeries;
+import codeu.chat.util.store.TrigramIndex;
+import codeu.chat.util.store.UuidIndex;
 
+// MODEL
+//
+// Everything the server knows about. Users, conversations and messages can
+// always be found by id, and messages by where they are in their
+// conversation. The other indexes are secondary (see SecondaryIndex) and each
+// can be made eager, lazy or disabled, either by passing their modes in or
+// with the system property "codeu.chat.index.<name>" (such as
+// "-Dcodeu.chat.index.messageByTime=disabled").
 public final class Model {
 
-  private static final Comparator<Uuid> UUID_COMPARE = new Comparator<Uuid>() {
+  // The secondary indexes and their modes when not given one. Those that the
+  // view reads are eager, those it does not are lazy.
+  public static final Map<String, String> DEFAULT_MODES;
+
+  static {
+    final Map<String, String> modes = new HashMap<>();
+    modes.put("userByTime", SecondaryIndex.LAZY);
+    modes.put("userByText", SecondaryIndex.EAGER);
+    modes.put("conversationByTime", SecondaryIndex.EAGER);
+    modes.put("conversationByText", SecondaryIndex.EAGER);
+    modes.put("messageByTime", SecondaryIndex.LAZY);
+    modes.put("messageText", SecondaryIndex.EAGER);
+    DEFAULT_MODES = Collections.unmodifiableMap(modes);
+  }
 
-    @Override
-    public int compare(Uuid a, Uuid b) {
+  private final UuidIndex<User> userById = new UuidIndex<>();
+  private final UuidIndex<Conversation> conversationById = new UuidIndex<>();
+  private final UuidIndex<Message> messageById = new UuidIndex<>();
 
-      if (a == b) { return 0; }
+  private final UuidIndex<ConversationLog> conversationLogs = new UuidIndex<>();
+  private final UuidIndex<ConversationLog.Position> messagePositions = new UuidIndex<>();
 
-      if (a == null && b != null) { return -1; }
+  private final SecondaryIndex<TimeSeries<User>, User> userByTime;
+  private final SecondaryIndex<TrigramIndex<User>, User> userByText;
 
-      if (a != null && b == null) { return 1; }
+  private final SecondaryIndex<TimeSeries<Conversation>, Conversation> conversationByTime;
+  private final SecondaryIndex<TrigramIndex<Conversation>, Conversation> conversationByText;
 
-      final int order = Integer.compare(a.id(), b.id());
-      return order == 0 ? compare(a.root(), b.root()) : order;
-    }
-  };
+  private final SecondaryIndex<TimeSeries<Message>, Message> messageByTime;
+  private final SecondaryIndex<TextIndex, Message> messageText;
+
+  private final Collection<SecondaryIndex<?, ?>> secondaryIndexes = new ArrayList<>();
+
+  private final Uuid.Generator userGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private Uuid currentUserGeneration = userGenerations.make();
 
-  private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
-    @Override
-    public int compare(Time a, Time b) {
-      return a.compareTo(b);
+  public Model() {
+    this(Collections.<String, String>emptyMap());
+  }
+
+  // Modes not in "modes" come from the system properties, and then from
+  // DEFAULT_MODES.
+  public Model(Map<String, String> modes) {
+
+    for (final String name : modes.keySet()) {
+      if (!DEFAULT_MODES.containsKey(name)) {
+        throw new IllegalArgumentException("There is no index named " + name);
+      }
     }
-  };
 
-  private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
+    userByTime = register(new SecondaryIndex<TimeSeries<User>, User>("userByTime", mode(modes, "userByTime")) {
+      @Override
+      protected TimeSeries<User> create() { return new TimeSeries<>(); }
+      @Override
+      protected void add(TimeSeries<User> index, User user) { index.insert(user.creation, user); }
+      @Override
+      protected Iterable<User> existing() { return userById.all(); }
+      @Override
+      protected long bytes(TimeSeries<User> index) { return index.bytes(); }
+    });
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+    userByText = register(new SecondaryIndex<TrigramIndex<User>, User>("userByText", mode(modes, "userByText")) {
+      @Override
+      protected TrigramIndex<User> create() { return new TrigramIndex<>(); }
+      @Override
+      protected void add(TrigramIndex<User> index, User user) { index.insert(user.name, user); }
+      @Override
+      protected Iterable<User> existing() { return userById.all(); }
+      @Override
+      protected long bytes(TrigramIndex<User> index) { return index.bytes(); }
+    });
 
-  private final Store<Uuid, Conversation> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Conversation> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Conversation> conversationByText = new Store<>(STRING_COMPARE);
+    conversationByTime = register(new SecondaryIndex<TimeSeries<Conversation>, Conversation>(
+        "conversationByTime", mode(modes, "conversationByTime")) {
+      @Override
+      protected TimeSeries<Conversation> create() { return new TimeSeries<>(); }
+      @Override
+      protected void add(TimeSeries<Conversation> index, Conversation conversation) {
+        index.insert(conversation.creation, conversation);
+      }
+      @Override
+      protected Iterable<Conversation> existing() { return conversationById.all(); }
+      @Override
+      protected long bytes(TimeSeries<Conversation> index) { return index.bytes(); }
+    });
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+    conversationByText = register(new SecondaryIndex<TrigramIndex<Conversation>, Conversation>(
+        "conversationByText", mode(modes, "conversationByText")) {
+      @Override
+      protected TrigramIndex<Conversation> create() { return new TrigramIndex<>(); }
+      @Override
+      protected void add(TrigramIndex<Conversation> index, Conversation conversation) {
+        index.insert(conversation.title, conversation);
+      }
+      @Override
+      protected Iterable<Conversation> existing() { return conversationById.all(); }
+      @Override
+      protected long bytes(TrigramIndex<Conversation> index) { return index.bytes(); }
+    });
 
-  private final Uuid.Generator userGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
-  private Uuid currentUserGeneration = userGenerations.make();
+    messageByTime = register(new SecondaryIndex<TimeSeries<Message>, Message>(
+        "messageByTime", mode(modes, "messageByTime")) {
+      @Override
+      protected TimeSeries<Message> create() { return new TimeSeries<>(); }
+      @Override
+      protected void add(TimeSeries<Message> index, Message message) {
+        index.insert(message.creation, message);
+      }
+      @Override
+      protected Iterable<Message> existing() { return messageById.all(); }
+      @Override
+      protected long bytes(TimeSeries<Message> index) { return index.bytes(); }
+    });
+
+    messageText = register(new SecondaryIndex<TextIndex, Message>("messageText", mode(modes, "messageText")) {
+      @Override
+      protected TextIndex create() { return new TextIndex(); }
+      @Override
+      protected void add(TextIndex index, Message message) {
+        index.add(messagePositions.first(message.id).log.conversation, message);
+      }
+      @Override
+      protected Iterable<Message> existing() { return messageById.all(); }
+      @Override
+      protected long bytes(TextIndex index) { return index.bytes(); }
+    });
+
+    for (final SecondaryIndex<?, ?> index : secondaryIndexes) {
+      index.start();
+    }
+  }
 
   public void add(User user) {
     currentUserGeneration = userGenerations.make();
 
     userById.insert(user.id, user);
-    userByTime.insert(user.creation, user);
-    userByText.insert(user.name, user);
+    userByTime.add(user);
+    userByText.add(user);
   }
 
-  public StoreAccessor<Uuid, User> userById() {
+  public UuidIndex<User> userById() {
     return userById;
   }
 
   public StoreAccessor<Time, User> userByTime() {
-    return userByTime;
+    return userByTime.get();
   }
 
-  public StoreAccessor<String, User> userByText() {
-    return userByText;
+  public TrigramIndex<User> userByText() {
+    return userByText.get();
   }
 
   public Uuid userGeneration() {
@@ -94,37 +200,76 @@ public final class Model {
 
   public void add(Conversation conversation) {
     conversationById.insert(conversation.id, conversation);
-    conversationByTime.insert(conversation.creation, conversation);
-    conversationByText.insert(conversation.title, conversation);
+    conversationLogs.insert(conversation.id, new ConversationLog(conversation.id));
+    conversationByTime.add(conversation);
+    conversationByText.add(conversation);
   }
 
-  public StoreAccessor<Uuid, Conversation> conversationById() {
+  public UuidIndex<Conversation> conversationById() {
     return conversationById;
   }
 
   public StoreAccessor<Time, Conversation> conversationByTime() {
-    return conversationByTime;
+    return conversationByTime.get();
   }
 
-  public StoreAccessor<String, Conversation> conversationByText() {
-    return conversationByText;
+  public TrigramIndex<Conversation> conversationByText() {
+    return conversationByText.get();
   }
 
-  public void add(Message message) {
+  public void add(Conversation conversation, Message message) {
     messageById.insert(message.id, message);
-    messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+
+    final ConversationLog log = conversationLogs.first(conversation.id);
+    messagePositions.insert(message.id, new ConversationLog.Position(log, log.append(message)));
+
+    messageByTime.add(message);
+    messageText.add(message);
   }
 
-  public StoreAccessor<Uuid, Message> messageById() {
+  public UuidIndex<Message> messageById() {
     return messageById;
   }
 
   public StoreAccessor<Time, Message> messageByTime() {
-    return messageByTime;
+    return messageByTime.get();
+  }
+
+  // The words of every message (see TextIndex).
+  TextIndex messageText() {
+    return messageText.get();
+  }
+
+  // The messages of a conversation in the order they were added to it, or null
+  // if there is no such conversation.
+  ConversationLog conversationLog(Uuid conversation) {
+    return conversationLogs.first(conversation);
+  }
+
+  // Where the message is in its conversation's log, or null if there is no
+  // such message.
+  ConversationLog.Position messagePosition(Uuid message) {
+    return messagePositions.first(message);
+  }
+
+  // The mode of each secondary index, by name.
+  public Map<String, String> indexModes() {
+    final Map<String, String> modes = new HashMap<>();
+    for (final SecondaryIndex<?, ?> index : secondaryIndexes) {
+      modes.put(index.name(), index.mode());
+    }
+    return modes;
+  }
+
+  private <T extends SecondaryIndex<?, ?>> T register(T index) {
+    secondaryIndexes.add(index);
+    return index;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  private static String mode(Map<String, String> modes, String name) {
+    final String given = modes.get(name);
+    return given != null ?
+        given :
+        System.getProperty("codeu.chat.index." + name, DEFAULT_MODES.get(name));
   }
 }
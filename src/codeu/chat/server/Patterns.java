@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import codeu.chat.util.LinearPattern;
+import codeu.chat.util.Metrics;
+
+// PATTERNS
+//
+// Compiles the regular expressions that clients send to find conversations by
+// title. They are compiled as LinearPatterns, so a careless or hostile filter
+// can not take more than a set number of steps per request (see
+// STEP_BUDGET). Clients tend to send the same few filters again and again, so
+// the most recently used compiled patterns are kept and reused.
+//
+// Also finds the text that every match of a pattern must contain, so that the
+// trigram indexes can narrow the search before any pattern is run.
+final class Patterns {
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  // How many steps matching one request's filter may take, across all of the
+  // titles it is run on.
+  public static final long STEP_BUDGET = 10000000;
+
+  private final Map<String, LinearPattern> cache;
+
+  private final Metrics.Counter hits = Metrics.counter("server.patterns.hit");
+  private final Metrics.Counter misses = Metrics.counter("server.patterns.miss");
+  private final Metrics.Counter rejected = Metrics.counter("server.patterns.rejected");
+
+  public Patterns() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public Patterns(final int capacity) {
+    this.cache = new LinkedHashMap<String, LinearPattern>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, LinearPattern> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // COMPILE
+  //
+  // Throws PatternSyntaxException if the expression is not valid or uses
+  // something LinearPattern does not support. Those are not kept.
+  public LinearPattern compile(String regex) {
+
+    synchronized (cache) {
+      final LinearPattern cached = cache.get(regex);
+      if (cached != null) {
+        hits.increment();
+        return cached;
+      }
+    }
+
+    misses.increment();
+
+    // Compiling is done outside of the lock so that one large pattern does not
+    // hold up everyone else.
+    final LinearPattern compiled;
+
+    try {
+      compiled = LinearPattern.compile(regex);
+    } catch (PatternSyntaxException ex) {
+      rejected.increment();
+      throw ex;
+    }
+
+    synchronized (cache) {
+      cache.put(regex, compiled);
+    }
+
+    return compiled;
+  }
+
+  // REQUIRED LITERAL
+  //
+  // The longest run of plain characters that must appear in any text that the
+  // whole expression matches, or an empty string if none can be found. Only
+  // the simple parts of an expression are understood: anything in a group or
+  // a character class is skipped, a character followed by "?", "*" or "{" is
+  // taken to be optional, and nothing after an escape like "\d" is looked at.
+  // Expressions with "|" or flags ("(?") are not looked at at all.
+  public static String requiredLiteral(String regex) {
+
+    if (regex.indexOf('|') >= 0 || regex.contains("(?")) {
+      return "";
+    }
+
+    String best = "";
+    final StringBuilder run = new StringBuilder();
+
+    int depth = 0;
+
+    for (int i = 0; i < regex.length(); i++) {
+
+      final char c = regex.charAt(i);
+
+      if (c == '\\') {
+        // An escaped symbol (such as "\.") is a literal, but treating it as the
+        // end of the run is only ever less precise. Escapes with letters or
+        // digits (such as "\d", "\Q" or "\u0041") are not followed further.
+        best = longer(best, run);
+        run.setLength(0);
+        i++;
+        if (i < regex.length() && Character.isLetterOrDigit(regex.charAt(i))) {
+          return best;
+        }
+      } else if (c == '[') {
+        best = longer(best, run);
+        run.setLength(0);
+        i = endOfClass(regex, i);
+        if (i < 0) {
+          return best;
+        }
+      } else if (c == '(') {
+        best = longer(best, run);
+        run.setLength(0);
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth > 0) {
+        // Inside a group, which may be optional.
+      } else if (c == '?' || c == '*' || c == '{') {
+        // The character before is optional, so the run stops before it.
+        if (run.length() > 0) {
+          run.setLength(run.length() - 1);
+        }
+        best = longer(best, run);
+        run.setLength(0);
+        if (c == '{') {
+          final int close = regex.indexOf('}', i);
+          i = close < 0 ? regex.length() : close;
+        }
+      } else if (c == '+' || c == '.' || c == '^' || c == '$') {
+        best = longer(best, run);
+        run.setLength(0);
+      } else {
+        run.append(c);
+      }
+    }
+
+    return longer(best, run);
+  }
+
+  private static String longer(String best, StringBuilder run) {
+    return run.length() > best.length() ? run.toString() : best;
+  }
+
+  // The position of the "]" that closes the class opened at "open", or -1 if
+  // the class is too complex to follow (such as a class within a class).
+  private static int endOfClass(String regex, int open) {
+
+    // A "]" right after the "[" (or "[^") is part of the class.
+    int i = open + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') { i++; }
+    if (i < regex.length() && regex.charAt(i) == ']') { i++; }
+
+    for (; i < regex.length(); i++) {
+      final char c = regex.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '[') {
+        return -1;
+      } else if (c == ']') {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
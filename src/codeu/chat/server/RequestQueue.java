@@ -0,0 +1,180 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Metrics;
+
+// REQUEST QUEUE
+//
+// Sits in front of the workers and limits how many requests can be waiting
+// for them. Once the limit is reached new requests are turned away right
+// away (see "offer") rather than being queued, so a burst cannot grow the
+// heap and everyone's wait time without bound.
+//
+// Waiting requests are run in priority order. Every accepted request hands the
+// workers a task that runs whichever request is first in line when a worker
+// gets to it, so the workers' own queue does not need to know about priority.
+final class RequestQueue {
+
+  // Priorities, lower runs first.
+  public static final int HIGH = 0;
+  public static final int NORMAL = 1;
+  public static final int BULK = 2;
+
+  private final Executor workers;
+  private final int maxDepth;
+
+  private final PriorityBlockingQueue<Entry> waiting = new PriorityBlockingQueue<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final Metrics.Counter rejected = Metrics.counter("server.queue.rejected");
+  private final Metrics.Timer wait = Metrics.timer("server.queue.wait");
+
+  // How long requests have been waiting lately, as a moving average where each
+  // new wait counts for 1/RECENT_WEIGHT. Unlike the timer's mean, which is
+  // since startup, this catches up within a few dozen requests when a burst
+  // follows a quiet spell.
+  private static final int RECENT_WEIGHT = 8;
+  private final AtomicLong recentWaitNanos = new AtomicLong();
+
+  private final Runnable runNext = new Runnable() {
+    @Override
+    public void run() {
+
+      final Entry next = waiting.poll();
+
+      if (next != null) {
+        depth.decrementAndGet();
+        waited(System.nanoTime() - next.queued);
+        next.task.run();
+      }
+    }
+  };
+
+  public RequestQueue(Executor workers, int maxDepth) {
+
+    this.workers = workers;
+    this.maxDepth = maxDepth;
+
+    Metrics.gauge("server.queue.depth", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        return depth.get();
+      }
+    });
+  }
+
+  // OFFER
+  //
+  // Queue the task to be run by the workers. Returns false, without queuing
+  // it, if the queue is full.
+  public boolean offer(int priority, Runnable task) {
+
+    if (depth.incrementAndGet() > maxDepth) {
+      depth.decrementAndGet();
+      rejected.increment();
+      return false;
+    }
+
+    waiting.add(new Entry(priority, sequence.getAndIncrement(), task));
+    workers.execute(runNext);
+
+    return true;
+  }
+
+  public int depth() {
+    return depth.get();
+  }
+
+  // RETRY AFTER
+  //
+  // How long a turned away client should wait before trying again. Twice the
+  // time requests have been waiting lately, kept within reason.
+  public int retryAfterMs() {
+    final long ms = 2 * recentWaitNanos.get() / 1000000;
+    return (int) Math.max(50, Math.min(5000, ms));
+  }
+
+  private void waited(long nanos) {
+
+    wait.record(nanos);
+
+    for (long recent = recentWaitNanos.get(); ; recent = recentWaitNanos.get()) {
+      if (recentWaitNanos.compareAndSet(recent, recent + (nanos - recent) / RECENT_WEIGHT)) {
+        break;
+      }
+    }
+  }
+
+  // PRIORITY
+  //
+  // Changes to the model and subscriptions go ahead of reads, and reads that
+  // may return a lot of data go last. Unknown types (such as when the type
+  // could not be seen before queuing) are NORMAL.
+  public static int priority(int type) {
+
+    if (type == NetworkCode.NEW_MESSAGE_REQUEST ||
+        type == NetworkCode.NEW_USER_REQUEST ||
+        type == NetworkCode.NEW_CONVERSATION_REQUEST ||
+        type == NetworkCode.SUBSCRIBE_REQUEST ||
+        type == NetworkCode.OPEN_SESSION_REQUEST) {
+      return HIGH;
+    }
+
+    if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST ||
+        type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST ||
+        type == NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST ||
+        type == NetworkCode.FIND_CONVERSATIONS_REQUEST ||
+        type == NetworkCode.FIND_USERS_REQUEST ||
+        type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST ||
+        type == NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST ||
+        type == NetworkCode.GET_USERS_EXCLUDING_REQUEST ||
+        type == NetworkCode.SEARCH_MESSAGES_REQUEST ||
+        type == NetworkCode.BATCH_REQUEST) {
+      return BULK;
+    }
+
+    return NORMAL;
+  }
+
+  private static final class Entry implements Comparable<Entry> {
+
+    final int priority;
+    final long order;
+    final long queued = System.nanoTime();
+    final Runnable task;
+
+    Entry(int priority, long order, Runnable task) {
+      this.priority = priority;
+      this.order = order;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      // Within a priority, first come first served.
+      return priority != other.priority ?
+          Integer.compare(priority, other.priority) :
+          Long.compare(order, other.order);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
+
+// SECONDARY INDEX
+//
+// One of the model's optional indexes (such as conversations by time) and how
+// it is kept up to date. Each is given a mode:
+//
+//   EAGER     the index is made with the model and kept up to date on every
+//             change. Queries never wait.
+//   LAZY      nothing is done until the index is first read. It is then built
+//             from every existing value and kept up to date from then on.
+//             Indexes that are never read cost nothing.
+//   DISABLED  the index is never made or kept up to date. Reading it gives an
+//             empty index, so queries that need it find nothing.
+//
+// How long keeping the index up to date takes and about how much memory it
+// uses are reported as the metrics "model.index.<name>.add" and
+// "model.index.<name>.bytes".
+//
+// Changes ("add") must hold the model's write lock. Reads ("get") may hold
+// only the read lock, so building a lazy index is synchronized so that it is
+// only done once.
+abstract class SecondaryIndex<INDEX, VALUE> {
+
+  private final static Logger.Log LOG = Logger.newLog(SecondaryIndex.class);
+
+  public static final String EAGER = "eager";
+  public static final String LAZY = "lazy";
+  public static final String DISABLED = "disabled";
+
+  private final String name;
+  private final String mode;
+  private final Metrics.Timer maintenance;
+
+  // Null until the index is made.
+  private volatile INDEX index;
+
+  public SecondaryIndex(String name, String mode) {
+
+    if (!EAGER.equals(mode) && !LAZY.equals(mode) && !DISABLED.equals(mode)) {
+      throw new IllegalArgumentException(String.format(
+          "Index %s can not be %s, it must be %s, %s or %s", name, mode, EAGER, LAZY, DISABLED));
+    }
+
+    this.name = name;
+    this.mode = mode;
+    this.maintenance = Metrics.timer("model.index." + name + ".add");
+
+    Metrics.gauge("model.index." + name + ".bytes", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        final INDEX current = index;
+        return current == null ? 0 : bytes(current);
+      }
+    });
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public String mode() {
+    return mode;
+  }
+
+  // ADD
+  //
+  // Called for every new value. Does nothing until the index has been made.
+  public final void add(VALUE value) {
+
+    final INDEX current = index;
+
+    if (current != null) {
+      final long start = System.nanoTime();
+      add(current, value);
+      maintenance.record(System.nanoTime() - start);
+    }
+  }
+
+  // GET
+  //
+  // The index, built now if it is lazy and has not been read before.
+  public final INDEX get() {
+
+    final INDEX current = index;
+    return current == null ? build() : current;
+  }
+
+  // Called by the model once every primary index is ready, as building an
+  // eager index is the same as building a lazy one with no values yet.
+  final void start() {
+    if (EAGER.equals(mode)) {
+      build();
+    }
+  }
+
+  private synchronized INDEX build() {
+
+    if (index != null) {
+      return index;
+    }
+
+    final INDEX built = create();
+
+    if (DISABLED.equals(mode)) {
+      // Not kept, so every read gets an empty index and nothing is maintained.
+      return built;
+    }
+
+    final long start = System.nanoTime();
+    int count = 0;
+
+    for (final VALUE value : existing()) {
+      add(built, value);
+      count++;
+    }
+
+    if (count > 0) {
+      LOG.info("Built index %s from %d values in %.3fms", name, count, (System.nanoTime() - start) / 1e6);
+    }
+
+    index = built;
+    return built;
+  }
+
+  // Make a new, empty index.
+  protected abstract INDEX create();
+
+  // Add one value to the index.
+  protected abstract void add(INDEX index, VALUE value);
+
+  // Every value the model already has, in the order they were added.
+  protected abstract Iterable<VALUE> existing();
+
+  // About how much memory the index takes.
+  protected abstract long bytes(INDEX index);
+}
@@ -15,13 +15,21 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
@@ -31,10 +39,12 @@ import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.User;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Compression;
 import codeu.chat.util.connections.Connection;
 
 public final class Server {
@@ -42,26 +52,72 @@ public final class Server {
   private static final Logger.Log LOG = Logger.newLog(Server.class);
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
+  private static final int METRICS_LOG_MS = 60000;  // 1 minute
+
+  // How many requests can be waiting for the workers before new ones are
+  // turned away with SERVER_BUSY.
+  public static final int DEFAULT_MAX_QUEUED = 1024;
+
+  private static final long ENCODED_CACHE_BYTES = 16 * 1024 * 1024;  // 16 MB
 
   private final Timeline timeline = new Timeline();
 
+  // Requests are run on the workers rather than on the timeline so that one
+  // slow connection cannot stall every other client. The timeline is only used
+  // for the relay events. Requests reach the workers through this queue, which
+  // bounds and orders them.
+  private final RequestQueue requests;
+
+  // All access to the model must go through this lock. Anything that only
+  // reads from the model (the view) can share the read lock, anything that
+  // changes the model (the controller) must hold the write lock. Responses are
+  // serialized while the lock is held as messages and conversations have fields
+  // that change when new messages are added.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Lock readLock = lock.readLock();
+  private final Lock writeLock = lock.writeLock();
+
   private final Uuid id;
   private final byte[] secret;
 
   private final Model model = new Model();
   private final View view = new View(model);
+  private final Subscriptions subscriptions = new Subscriptions();
   private final Controller controller;
 
+  private final Compression compression = new Compression();
+
+  // Users, conversations and messages are encoded once and their bytes reused
+  // for every response that lists them (see EncodedCache).
+  private final EncodedCache encoded = new EncodedCache(ENCODED_CACHE_BYTES);
+
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
-  public Server(final Uuid id, final byte[] secret, final Relay relay) {
+  public Server(final Uuid id, final byte[] secret, final Relay relay, final Executor workers) {
+    this(id, secret, relay, workers, DEFAULT_MAX_QUEUED);
+  }
+
+  public Server(final Uuid id,
+                final byte[] secret,
+                final Relay relay,
+                final Executor workers,
+                final int maxQueued) {
 
     this.id = id;
     this.secret = Arrays.copyOf(secret, secret.length);
 
-    this.controller = new Controller(id, model);
+    this.controller = new Controller(id, model, subscriptions);
     this.relay = relay;
+    this.requests = new RequestQueue(workers, maxQueued);
+
+    timeline.scheduleIn(METRICS_LOG_MS, new Runnable() {
+      @Override
+      public void run() {
+        LOG.info("Metrics: %s", Metrics.report());
+        timeline.scheduleIn(METRICS_LOG_MS, this);
+      }
+    });
 
     timeline.scheduleNow(new Runnable() {
       @Override
@@ -71,7 +127,12 @@ public final class Server {
           LOG.info("Reading update from relay...");
 
           for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
+            writeLock.lock();
+            try {
+              onBundle(bundle);
+            } finally {
+              writeLock.unlock();
+            }
             lastSeen = bundle.id();
           }
 
@@ -87,36 +148,299 @@ public final class Server {
   }
 
   public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+
+    final boolean queued = requests.offer(RequestQueue.priority(peekType(connection)), new Runnable() {
       @Override
       public void run() {
+
+        // Once a session or subscription is opened, it owns the connection
+        // and will close it when the client is done with it.
+        boolean kept = false;
+
         try {
 
           LOG.info("Handling connection...");
 
-          final boolean success = onMessage(
-              connection.in(),
-              connection.out());
+          final int type = Serializers.INTEGER.read(connection.in());
+
+          if (type == NetworkCode.OPEN_SESSION_REQUEST) {
+
+            openSession(connection);
+            kept = true;
+
+          } else if (type == NetworkCode.SUBSCRIBE_REQUEST) {
 
-          LOG.info("Connection handled: %s", success ? "ACCEPTED" : "REJECTED");
+            kept = subscribe(connection);
+
+          } else {
+
+            // Build the whole response before touching the socket so that it
+            // is sent in one write and no lock is held while waiting on the
+            // client.
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+            final boolean success = onMessage(type, connection.in(), response, 1);
+
+            response.writeTo(connection.out());
+
+            LOG.info("Connection handled: %s", success ? "ACCEPTED" : "REJECTED");
+          }
         } catch (Exception ex) {
 
           LOG.error(ex, "Exception while handling connection.");
 
         }
 
-        try {
-          connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+        if (!kept) {
+          try {
+            connection.close();
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while closing connection.");
+          }
         }
       }
     });
+
+    if (!queued) {
+
+      LOG.warning("Server busy, turning connection away.");
+
+      try {
+        writeBusy(connection.out());
+        connection.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Exception while turning connection away.");
+      }
+    }
+  }
+
+  // PEEK TYPE
+  //
+  // Look at the type of the request without taking it off the connection so
+  // that it can be queued with the right priority. This is only done when the
+  // type has already arrived and the stream can be rewound, as waiting for the
+  // client here would hold up every other connection. Otherwise NO_MESSAGE is
+  // returned.
+  private static int peekType(Connection connection) {
+
+    try {
+
+      final InputStream in = connection.in();
+
+      if (in.markSupported() && in.available() >= 4) {
+        in.mark(4);
+        final int type = Serializers.INTEGER.read(in);
+        in.reset();
+        return type;
+      }
+
+    } catch (IOException ex) {
+      // Let the worker find out about it when it reads the request.
+    }
+
+    return NetworkCode.NO_MESSAGE;
+  }
+
+  // WRITE BUSY
+  //
+  // Tell the client that the request was not run because the server is too
+  // busy and how many milliseconds it should wait before trying again.
+  private void writeBusy(OutputStream out) throws IOException {
+    Serializers.INTEGER.write(out, NetworkCode.SERVER_BUSY);
+    Serializers.INTEGER.write(out, requests.retryAfterMs());
   }
 
-  private boolean onMessage(InputStream in, OutputStream out) throws IOException {
+  // OPEN SESSION
+  //
+  // A session keeps one connection open for many requests. After the session
+  // is opened, every request is sent as SESSION_REQUEST, an id chosen by the
+  // client, and the inner request as a byte array. From version 2 on requests
+  // are sent as VERSIONED_SESSION_REQUEST, which adds the version after the
+  // id. Every response is sent back the same way as SESSION_RESPONSE. As the
+  // inner request carries its own length, a session works the same over raw
+  // and framed connections. Each request is run on the workers as soon as it
+  // arrives, so the responses may be sent in a different order than the
+  // requests.
+  //
+  // Reading from the connection is done on its own thread so that an idle
+  // session does not hold on to one of the workers.
+  private void openSession(final Connection connection) throws IOException {
+
+    final int version = Math.min(Serializers.INTEGER.read(connection.in()),
+                                 NetworkCode.PROTOCOL_VERSION);
+
+    Serializers.INTEGER.write(connection.out(), NetworkCode.OPEN_SESSION_RESPONSE);
+    Serializers.INTEGER.write(connection.out(), version);
+    connection.out().flush();
+
+    LOG.info("Session opened (version=%d)", version);
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readSession(connection);
+      }
+    }, "session-reader");
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // SUBSCRIBE
+  //
+  // Keep the connection open and push every new message in the conversation to
+  // it (see Subscriptions). The response says whether the conversation exists.
+  // Returns true if the connection was handed over to the subscription.
+  private boolean subscribe(Connection connection) throws IOException {
+
+    final Uuid conversation = Uuid.SERIALIZER.read(connection.in());
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(response, NetworkCode.SUBSCRIBE_RESPONSE);
+
+    // Checking and subscribing under the read lock means no message can be
+    // added in between, so the client will not miss one.
+    readLock.lock();
+    try {
+      if (model.conversationById().first(conversation) != null) {
+        Serializers.BOOLEAN.write(response, true);
+        subscriptions.subscribe(conversation, connection, response.toByteArray());
+        return true;
+      }
+    } finally {
+      readLock.unlock();
+    }
+
+    Serializers.BOOLEAN.write(response, false);
+    response.writeTo(connection.out());
+
+    return false;
+  }
+
+  private void readSession(final Connection connection) {
+
+    try {
 
-    final int type = Serializers.INTEGER.read(in);
+      while (true) {
+
+        final int sessionType = Serializers.INTEGER.read(connection.in());
+
+        if (sessionType != NetworkCode.SESSION_REQUEST &&
+            sessionType != NetworkCode.VERSIONED_SESSION_REQUEST) {
+          throw new IOException("Unexpected request in session");
+        }
+
+        final int id = Serializers.INTEGER.read(connection.in());
+        final int version = sessionType == NetworkCode.VERSIONED_SESSION_REQUEST ?
+            Serializers.INTEGER.read(connection.in()) :
+            1;
+        final byte[] request = Serializers.BYTES.read(connection.in());
+
+        final int type = request.length < 4 ?
+            NetworkCode.NO_MESSAGE :
+            Serializers.INTEGER.read(new ByteArrayInputStream(request));
+
+        final boolean queued = requests.offer(RequestQueue.priority(type), new Runnable() {
+          @Override
+          public void run() {
+            try {
+
+              final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+              onSessionRequest(id, version, request, response);
+
+              writeSessionResponse(connection, response);
+
+            } catch (Exception ex) {
+              LOG.error(ex, "Exception while handling session request.");
+            }
+          }
+        });
+
+        if (!queued) {
+
+          final ByteArrayOutputStream busy = new ByteArrayOutputStream();
+          writeBusy(busy);
+
+          final ByteArrayOutputStream response = new ByteArrayOutputStream();
+          Serializers.INTEGER.write(response, NetworkCode.SESSION_RESPONSE);
+          Serializers.INTEGER.write(response, id);
+          Serializers.BYTES.write(response, busy.toByteArray());
+
+          writeSessionResponse(connection, response);
+        }
+      }
+
+    } catch (EOFException ex) {
+      // The client closed the session.
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while reading session.");
+    }
+
+    LOG.info("Session closed.");
+
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing session.");
+    }
+  }
+
+  // The response goes out in one write so that it cannot be split by a flush
+  // from the reading thread or mixed up with another response.
+  private static void writeSessionResponse(Connection connection,
+                                           ByteArrayOutputStream response) throws IOException {
+    synchronized (connection) {
+      response.writeTo(connection.out());
+      connection.out().flush();
+    }
+  }
+
+  // ON SESSION REQUEST
+  //
+  // Run the inner request of a session request and write the tagged response.
+  // The id is sent back before the response so that the client can match the
+  // response to its request. The response is encoded for the session's
+  // version, but never a newer one than this server knows. Large responses are
+  // compressed if the version allows it.
+  private boolean onSessionRequest(int id,
+                                   int requestedVersion,
+                                   byte[] request,
+                                   OutputStream out) throws IOException {
+
+    final int version = Math.min(requestedVersion, NetworkCode.PROTOCOL_VERSION);
+
+    final InputStream in = new ByteArrayInputStream(request);
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+    final boolean success = onMessage(Serializers.INTEGER.read(in), in, response, version);
+
+    final byte[] bytes = response.toByteArray();
+    final byte[] compressed = version >= NetworkCode.COMPRESSION_VERSION ?
+        compression.compress(bytes) :
+        null;
+
+    if (compressed == null) {
+      Serializers.INTEGER.write(out, NetworkCode.SESSION_RESPONSE);
+      Serializers.INTEGER.write(out, id);
+      Serializers.BYTES.write(out, bytes);
+    } else {
+      Serializers.INTEGER.write(out, NetworkCode.COMPRESSED_SESSION_RESPONSE);
+      Serializers.INTEGER.write(out, id);
+      Serializers.INTEGER.write(out, bytes.length);
+      Serializers.BYTES.write(out, compressed);
+    }
+
+    return success;
+  }
+
+  // ON MESSAGE
+  //
+  // Run one request and write its response. "version" is the protocol version
+  // the response should be encoded for. Requests made outside of a session are
+  // always version 1.
+  private boolean onMessage(int type, InputStream in, OutputStream out, int version)
+      throws IOException {
 
     if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
 
@@ -124,101 +448,190 @@ public final class Server {
       final Uuid conversation = Uuid.SERIALIZER.read(in);
       final String content = Serializers.STRING.read(in);
 
-      final Message message = controller.newMessage(author, conversation, content);
+      final Message message;
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-      Serializers.nullable(Message.SERIALIZER).write(out, message);
+      writeLock.lock();
+      try {
+        message = controller.newMessage(author, conversation, content);
 
-      timeline.scheduleNow(createSendToRelayEvent(
-          author,
-          conversation,
-          message.id));
+        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
+        Serializers.nullable(Message.SERIALIZER).write(out, message);
+      } finally {
+        writeLock.unlock();
+      }
+
+      if (message != null) {
+        timeline.scheduleNow(createSendToRelayEvent(
+            author,
+            conversation,
+            message.id));
+      }
 
     } else if (type == NetworkCode.NEW_USER_REQUEST) {
 
       final String name = Serializers.STRING.read(in);
 
-      final User user = controller.newUser(name);
+      writeLock.lock();
+      try {
+        final User user = controller.newUser(name);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+        Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
+        Serializers.nullable(User.SERIALIZER).write(out, user);
+      } finally {
+        writeLock.unlock();
+      }
 
     } else if (type == NetworkCode.NEW_CONVERSATION_REQUEST) {
 
       final String title = Serializers.STRING.read(in);
       final Uuid owner = Uuid.SERIALIZER.read(in);
 
-      final Conversation conversation = controller.newConversation(title, owner);
+      writeLock.lock();
+      try {
+        final Conversation conversation = controller.newConversation(title, owner);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
-      Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
+        Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
+        Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
+      } finally {
+        writeLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_USERS_BY_ID_REQUEST) {
 
       final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
 
-      final Collection<User> users = view.getUsers(ids);
+      readLock.lock();
+      try {
+        final Collection<User> users = view.getUsers(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+        encoded.writeUsers(out, users);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
 
-      final Collection<ConversationSummary> conversations = view.getAllConversations();
+      readLock.lock();
+      try {
+        final Collection<ConversationSummary> conversations = view.getAllConversations();
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-      Serializers.collection(ConversationSummary.SERIALIZER).write(out, conversations);
+        Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
+        encoded.writeSummaries(out, conversations);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST) {
 
       final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
 
-      final Collection<Conversation> conversations = view.getConversations(ids);
+      readLock.lock();
+      try {
+        final Collection<Conversation> conversations = view.getConversations(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
+        encoded.writeConversations(out, conversations);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_ID_REQUEST) {
 
       final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
 
-      final Collection<Message> messages = view.getMessages(ids);
+      readLock.lock();
+      try {
+        final Collection<Message> messages = view.getMessages(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+        writeMessages(out, messages, version);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_USER_GENERATION_REQUEST) {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
-      Uuid.SERIALIZER.write(out, view.getUserGeneration());
+      readLock.lock();
+      try {
+        Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
+        Uuid.SERIALIZER.write(out, view.getUserGeneration());
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
 
       final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
 
-      final Collection<User> users = view.getUsersExcluding(ids);
+      readLock.lock();
+      try {
+        final Collection<User> users = view.getUsersExcluding(ids);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
+        encoded.writeUsers(out, users);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
 
       final Time startTime = Time.SERIALIZER.read(in);
       final Time endTime = Time.SERIALIZER.read(in);
 
-      final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
+      readLock.lock();
+      try {
+        final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
+        encoded.writeConversations(out, conversations);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST) {
 
       final String filter = Serializers.STRING.read(in);
 
-      final Collection<Conversation> conversations = view.getConversations(filter);
+      readLock.lock();
+      try {
+        final Collection<Conversation> conversations = view.getConversations(filter);
+
+        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
+        encoded.writeConversations(out, conversations);
+      } finally {
+        readLock.unlock();
+      }
+
+    } else if (type == NetworkCode.FIND_CONVERSATIONS_REQUEST) {
+
+      final int match = Serializers.INTEGER.read(in);
+      final String text = Serializers.STRING.read(in);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+      readLock.lock();
+      try {
+        final Collection<Conversation> conversations = view.findConversations(text, match);
+
+        Serializers.INTEGER.write(out, NetworkCode.FIND_CONVERSATIONS_RESPONSE);
+        encoded.writeConversations(out, conversations);
+      } finally {
+        readLock.unlock();
+      }
+
+    } else if (type == NetworkCode.FIND_USERS_REQUEST) {
+
+      final int match = Serializers.INTEGER.read(in);
+      final String text = Serializers.STRING.read(in);
+
+      readLock.lock();
+      try {
+        final Collection<User> users = view.findUsers(text, match);
+
+        Serializers.INTEGER.write(out, NetworkCode.FIND_USERS_RESPONSE);
+        encoded.writeUsers(out, users);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
 
@@ -226,20 +639,73 @@ public final class Server {
       final Time startTime = Time.SERIALIZER.read(in);
       final Time endTime = Time.SERIALIZER.read(in);
 
-      final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
+      readLock.lock();
+      try {
+        final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+        writeMessages(out, messages, version);
+      } finally {
+        readLock.unlock();
+      }
 
     } else if (type == NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST) {
 
       final Uuid rootMessage = Uuid.SERIALIZER.read(in);
       final int range = Serializers.INTEGER.read(in);
 
-      final Collection<Message> messages = view.getMessages(rootMessage, range);
+      readLock.lock();
+      try {
+        final Collection<Message> messages = view.getMessages(rootMessage, range);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
+        writeMessages(out, messages, version);
+      } finally {
+        readLock.unlock();
+      }
+
+    } else if (type == NetworkCode.SEARCH_MESSAGES_REQUEST) {
+
+      final String query = Serializers.STRING.read(in);
+      final boolean phrase = Serializers.BOOLEAN.read(in);
+      final Uuid conversation = Uuid.SERIALIZER.read(in);
+      final Time startTime = Time.SERIALIZER.read(in);
+      final Time endTime = Time.SERIALIZER.read(in);
+      final int offset = Serializers.INTEGER.read(in);
+      final int limit = Serializers.INTEGER.read(in);
+
+      readLock.lock();
+      try {
+        final Collection<Message> messages =
+            view.searchMessages(query, phrase, conversation, startTime, endTime, offset, limit);
+
+        Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+        writeMessages(out, messages, version);
+      } finally {
+        readLock.unlock();
+      }
+
+    } else if (type == NetworkCode.BATCH_REQUEST) {
+
+      final Collection<byte[]> requests = Serializers.collection(Serializers.BYTES).read(in);
+
+      final Collection<byte[]> responses = onBatch(requests, version);
+
+      Serializers.INTEGER.write(out, NetworkCode.BATCH_RESPONSE);
+      Serializers.collection(Serializers.BYTES).write(out, responses);
+
+    } else if (type == NetworkCode.SESSION_REQUEST ||
+               type == NetworkCode.VERSIONED_SESSION_REQUEST) {
+
+      // A session request that arrived as its own connection (such as a frame
+      // from the selector front end).
+      final int id = Serializers.INTEGER.read(in);
+      final int sessionVersion = type == NetworkCode.VERSIONED_SESSION_REQUEST ?
+          Serializers.INTEGER.read(in) :
+          1;
+      final byte[] request = Serializers.BYTES.read(in);
+
+      return onSessionRequest(id, sessionVersion, request, out);
 
     } else {
 
@@ -253,6 +719,73 @@ public final class Server {
     return true;
   }
 
+  // WRITE MESSAGES
+  //
+  // Write a list of messages for the given protocol version. The compact and
+  // columnar encodings depend on the messages around each message, so only
+  // the original encoding can use the encoded cache.
+  private void writeMessages(OutputStream out, Collection<Message> messages, int version)
+      throws IOException {
+    if (version < NetworkCode.COMPACT_VERSION) {
+      encoded.writeMessages(out, messages);
+    } else {
+      Message.collectionSerializer(version).write(out, messages);
+    }
+  }
+
+  // ON BATCH
+  //
+  // Run each request of a batch in order and return their responses in the
+  // same order. The whole batch runs under one lock so that no other request
+  // can change the model part way through it. The write lock is only taken if
+  // one of the requests needs it. The per-request locking in "onMessage" still
+  // happens, but as the locks are reentrant it does not block. Batches and
+  // sessions can not be nested in a batch and get NO_MESSAGE back. Every
+  // response is encoded for the batch's version.
+  private Collection<byte[]> onBatch(Collection<byte[]> requests, int version) throws IOException {
+
+    boolean writes = false;
+
+    for (final byte[] request : requests) {
+      writes |= isWrite(Serializers.INTEGER.read(new ByteArrayInputStream(request)));
+    }
+
+    final Lock lock = writes ? writeLock : readLock;
+    final Collection<byte[]> responses = new ArrayList<>(requests.size());
+
+    lock.lock();
+    try {
+      for (final byte[] request : requests) {
+
+        final InputStream in = new ByteArrayInputStream(request);
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        final int type = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.BATCH_REQUEST ||
+            type == NetworkCode.SESSION_REQUEST ||
+            type == NetworkCode.VERSIONED_SESSION_REQUEST ||
+            type == NetworkCode.OPEN_SESSION_REQUEST) {
+          Serializers.INTEGER.write(response, NetworkCode.NO_MESSAGE);
+        } else {
+          onMessage(type, in, response, version);
+        }
+
+        responses.add(response.toByteArray());
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    return responses;
+  }
+
+  private static boolean isWrite(int type) {
+    return type == NetworkCode.NEW_MESSAGE_REQUEST ||
+           type == NetworkCode.NEW_USER_REQUEST ||
+           type == NetworkCode.NEW_CONVERSATION_REQUEST;
+  }
+
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
@@ -295,9 +828,20 @@ public final class Server {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final Conversation conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
+
+        final User user;
+        final Conversation conversation;
+        final Message message;
+
+        readLock.lock();
+        try {
+          user = view.findUser(userId);
+          conversation = view.findConversation(conversationId);
+          message = view.findMessage(messageId);
+        } finally {
+          readLock.unlock();
+        }
+
         relay.write(id,
                     secret,
                     relay.pack(user.id, user.name, user.creation),
@@ -0,0 +1,219 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTIONS
+//
+// Keeps track of the connections that want to be told about new messages in
+// a conversation. Each subscriber has its own bounded queue and its own thread
+// that writes to its connection, so publishing a message never waits on a
+// client. A subscriber that falls so far behind that its queue fills up is
+// dropped. Its client is told that the subscription is over and can catch
+// up with the normal requests.
+public final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  // How many pushes can be waiting for a subscriber before it is dropped.
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  // Put on a subscriber's queue to tell its thread to stop.
+  private static final byte[] STOP = new byte[0];
+
+  private final ConcurrentMap<Uuid, Collection<Subscriber>> subscribers = new ConcurrentHashMap<>();
+  private final int queueSize;
+
+  public Subscriptions() {
+    this(DEFAULT_QUEUE_SIZE);
+  }
+
+  public Subscriptions(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  // SUBSCRIBE
+  //
+  // Start sending new messages in the conversation to the connection. "first"
+  // is written before any message (such as the response to the subscribe
+  // request). The subscription owns the connection from now on and will close
+  // it when the subscription ends.
+  public void subscribe(Uuid conversation, Connection connection, byte[] first) {
+
+    final Subscriber subscriber = new Subscriber(conversation, connection, queueSize);
+    subscriber.queue.offer(first);
+
+    while (true) {
+
+      Collection<Subscriber> current = subscribers.get(conversation);
+
+      if (current == null) {
+        final Collection<Subscriber> created = new CopyOnWriteArraySet<>();
+        current = subscribers.putIfAbsent(conversation, created);
+        current = current == null ? created : current;
+      }
+
+      // "remove" drops a collection once it is empty. Adding while holding the
+      // collection's lock, and only if it is still the conversation's, makes
+      // sure the subscriber does not end up in a dropped collection.
+      synchronized (current) {
+        if (subscribers.get(conversation) == current) {
+          current.add(subscriber);
+          break;
+        }
+      }
+    }
+
+    final Thread thread = new Thread(subscriber, "subscriber");
+    thread.setDaemon(true);
+    thread.start();
+
+    LOG.info("Subscribed to conversation %s", conversation);
+  }
+
+  // PUBLISH
+  //
+  // Queue the message for everyone subscribed to the conversation. The message
+  // is encoded here, once, rather than by each subscriber as the caller may
+  // change it (such as its "next" link) after this returns.
+  public void publish(Uuid conversation, Message message) {
+
+    final Collection<Subscriber> current = subscribers.get(conversation);
+
+    if (current == null || current.isEmpty()) {
+      return;
+    }
+
+    final ByteArrayOutputStream push = new ByteArrayOutputStream();
+
+    try {
+      Serializers.INTEGER.write(push, NetworkCode.MESSAGE_PUSH);
+      Message.SERIALIZER.write(push, message);
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode message %s", message.id);
+      return;
+    }
+
+    final byte[] bytes = push.toByteArray();
+
+    for (final Subscriber subscriber : current) {
+      if (!subscriber.queue.offer(bytes)) {
+        LOG.warning("Dropping slow subscriber to conversation %s", conversation);
+        remove(subscriber);
+      }
+    }
+  }
+
+  // SIZE
+  //
+  // The number of subscribers across all conversations.
+  public int size() {
+    int size = 0;
+    for (final Collection<Subscriber> current : subscribers.values()) {
+      size += current.size();
+    }
+    return size;
+  }
+
+  // CONVERSATIONS
+  //
+  // The number of conversations that have at least one subscriber.
+  public int conversations() {
+    return subscribers.size();
+  }
+
+  private void remove(Subscriber subscriber) {
+
+    final Collection<Subscriber> current = subscribers.get(subscriber.conversation);
+
+    if (current == null) {
+      return;
+    }
+
+    final boolean removed;
+
+    synchronized (current) {
+      removed = current.remove(subscriber);
+      // Otherwise every conversation that ever had a subscriber would keep
+      // an entry.
+      if (current.isEmpty()) {
+        subscribers.remove(subscriber.conversation, current);
+      }
+    }
+
+    if (removed) {
+      // Make room for the stop marker so that the thread is sure to see it.
+      subscriber.queue.clear();
+      subscriber.queue.offer(STOP);
+    }
+  }
+
+  private final class Subscriber implements Runnable {
+
+    private final Uuid conversation;
+    private final Connection connection;
+    private final BlockingQueue<byte[]> queue;
+
+    public Subscriber(Uuid conversation, Connection connection, int queueSize) {
+      this.conversation = conversation;
+      this.connection = connection;
+      this.queue = new ArrayBlockingQueue<>(queueSize + 1);
+    }
+
+    @Override
+    public void run() {
+
+      try {
+
+        for (byte[] next = queue.take(); next != STOP; next = queue.take()) {
+          connection.out().write(next);
+          connection.out().flush();
+        }
+
+        // Closing the connection may not close the socket (it can be kept for
+        // the client's next request), so tell the client that the pushes are
+        // over.
+        Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+        connection.out().flush();
+
+      } catch (Exception ex) {
+        LOG.info("Subscriber to conversation %s lost: %s", conversation, ex.getMessage());
+      }
+
+      remove(this);
+
+      try {
+        connection.close();
+      } catch (Exception ex) {
+        LOG.error(ex, "Exception while closing subscriber connection.");
+      }
+    }
+  }
+}
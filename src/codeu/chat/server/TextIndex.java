@@ -0,0 +1,195 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.store.PostingList;
+
+// TEXT INDEX
+//
+// An inverted index over the words of every message. Each message is given a
+// position when it is added (0 for the first message, 1 for the next, ...)
+// and every word maps to the positions of the messages that use it. As
+// messages are only ever added, each of those lists is already in order and
+// adding a message is an append to the list of each of its words.
+//
+// A search looks up the list of each word in the query and walks the messages
+// on all of them from the newest back (see PostingList.Intersection). Only
+// messages that have every word are looked at, so the cost follows the rarest
+// word rather than the number of messages.
+//
+// Words are runs of letters and digits, compared without case.
+//
+// Guarded by the model's lock like everything else in the model.
+final class TextIndex {
+
+  // The most results one search will return, whatever is asked for.
+  public static final int MAX_LIMIT = 1000;
+
+  private final Map<String, PostingList> terms = new HashMap<>();
+
+  private final List<Message> messages = new ArrayList<>();
+  private final List<Uuid> conversations = new ArrayList<>();
+
+  // About how much memory a new word takes: its map entry, list and string.
+  private static final int TERM_BYTES = 96;
+
+  private volatile long bytes = 0;
+
+  public void add(Uuid conversation, Message message) {
+
+    final int position = messages.size();
+
+    messages.add(message);
+    conversations.add(conversation);
+
+    long added = 8;
+
+    for (final String term : tokenize(message.content)) {
+
+      PostingList postings = terms.get(term);
+
+      if (postings == null) {
+        postings = new PostingList();
+        terms.put(term, postings);
+        added += TERM_BYTES + 2 * term.length();
+      }
+
+      added += postings.add(position);
+    }
+
+    bytes += added;
+  }
+
+  // BYTES
+  //
+  // About how much memory the index takes, not counting the messages in it.
+  // It can be read while someone is adding.
+  public long bytes() {
+    return bytes;
+  }
+
+  // SEARCH
+  //
+  // Find the messages that have every word in the query, newest first. When
+  // "phrase" is set the words must also come one after the other in the same
+  // order. Only messages in "conversation" (unless it is Uuid.NULL) and created
+  // from "start" to "end" are returned. The first "offset" matches are skipped
+  // and at most "limit" are returned.
+  public List<Message> search(String query,
+                              boolean phrase,
+                              Uuid conversation,
+                              Time start,
+                              Time end,
+                              int offset,
+                              int limit) {
+
+    final List<Message> found = new ArrayList<>();
+
+    final List<String> words = tokenize(query);
+    limit = Math.min(limit, MAX_LIMIT);
+
+    if (words.isEmpty() || limit <= 0) {
+      return found;
+    }
+
+    final PostingList[] lists = new PostingList[words.size()];
+
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = terms.get(words.get(i));
+      if (lists[i] == null) {
+        return found;
+      }
+    }
+
+    final PostingList.Intersection matches = new PostingList.Intersection(lists);
+
+    int skip = Math.max(0, offset);
+
+    for (int position = matches.previous();
+         position >= 0 && found.size() < limit;
+         position = matches.previous()) {
+
+      final Message message = messages.get(position);
+
+      if (!Uuid.equals(conversation, Uuid.NULL) &&
+          !Uuid.equals(conversation, conversations.get(position))) {
+        continue;
+      }
+
+      if (!message.creation.inRange(start, end)) {
+        continue;
+      }
+
+      if (phrase && !containsPhrase(tokenize(message.content), words)) {
+        continue;
+      }
+
+      if (skip > 0) {
+        skip--;
+      } else {
+        found.add(message);
+      }
+    }
+
+    return found;
+  }
+
+  // TOKENIZE
+  //
+  // Split text into lower case words.
+  public static List<String> tokenize(String text) {
+
+    final List<String> words = new ArrayList<>();
+
+    if (text == null) {
+      return words;
+    }
+
+    int start = -1;
+
+    for (int i = 0; i <= text.length(); i++) {
+
+      final boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+      if (inWord && start < 0) {
+        start = i;
+      } else if (!inWord && start >= 0) {
+        words.add(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+
+    return words;
+  }
+
+  private static boolean containsPhrase(List<String> text, List<String> phrase) {
+
+    for (int start = 0; start + phrase.size() <= text.size(); start++) {
+      if (text.subList(start, start + phrase.size()).equals(phrase)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
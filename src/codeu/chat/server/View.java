@@ -21,11 +21,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
@@ -33,17 +32,24 @@ import codeu.chat.common.ConversationSummary;
 import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
 import codeu.chat.common.SinglesView;
+import codeu.chat.common.TextMatch;
 import codeu.chat.common.User;
+import codeu.chat.util.LinearPattern;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Metrics;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
-import codeu.chat.util.store.StoreAccessor;
+import codeu.chat.util.store.TrigramIndex;
+import codeu.chat.util.store.UuidIndex;
 
 public final class View implements BasicView, LogicalView, SinglesView {
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
   private final Model model;
+  private final Patterns patterns = new Patterns();
+
+  private final Metrics.Counter exhausted = Metrics.counter("server.patterns.exhausted");
 
   public View(Model model) {
     this.model = model;
@@ -113,36 +119,41 @@ public final class View implements BasicView, LogicalView, SinglesView {
 
   @Override
   public Collection<Conversation> getConversations(String filter) {
+    return findConversations(filter, TextMatch.REGEX);
+  }
 
-    final Collection<Conversation> found = new ArrayList<>();
-
-    for (final Conversation conversation : model.conversationByText().all()) {
-      if (Pattern.matches(filter, conversation.title)) {
-        found.add(conversation);
-      }
-    }
+  @Override
+  public Collection<Conversation> findConversations(String text, int match) {
+    return find(model.conversationByText(), TITLE, text, match);
+  }
 
-    return found;
+  @Override
+  public Collection<User> findUsers(String text, int match) {
+    return find(model.userByText(), NAME, text, match);
   }
 
   @Override
   public Collection<Message> getMessages(Uuid conversation, Time start, Time end) {
 
-    final Conversation foundConversation = model.conversationById().first(conversation);
+    final ConversationLog log = model.conversationLog(conversation);
 
     final List<Message> foundMessages = new ArrayList<>();
 
-    Message current = (foundConversation == null) ?
-        null :
-        model.messageById().first(foundConversation.firstMessage);
-
-    while (current != null && current.creation.compareTo(start) < 0) {
-      current = model.messageById().first(current.next);
+    if (log == null) {
+      return foundMessages;
     }
 
-    while (current != null && current.creation.compareTo(end) <= 0) {
+    // Jump straight to the first message in the window and read forward from
+    // there until a message is past the end.
+    for (int i = log.firstAtOrAfter(start); i < log.size(); i++) {
+
+      final Message current = log.get(i);
+
+      if (current.creation.compareTo(end) > 0) {
+        break;
+      }
+
       foundMessages.add(current);
-      current = model.messageById().first(current.next);
     }
 
     return foundMessages;
@@ -151,35 +162,32 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Collection<Message> getMessages(Uuid rootMessage, int range) {
 
-    int remaining = Math.abs(range);
     LOG.info("in getMessage: UUID=%s range=%d", rootMessage, range);
 
-    // We want to return the messages in order. If the range was negative
-    // the messages would be backwards. Use a linked list as it supports
-    // adding at the front and adding at the end.
+    final ConversationLog.Position root = model.messagePosition(rootMessage);
 
-    final LinkedList<Message> found = new LinkedList<>();
-
-    // i <= remaining : must be "<=" and not just "<" or else "range = 0" would
-    // return nothing and we want it to return just the root because the description
-    // is that the function will return "range" around the root. Zero messages
-    // around the root means that it should just return the root.
+    if (root == null) {
+      return Collections.emptyList();
+    }
 
-    Message current = model.messageById().first(rootMessage);
+    // The root is always included, so "range = 0" returns just the root. The
+    // messages come back in conversation order in either direction.
+    final int reach = (int) Math.min(Math.abs((long) range), root.log.size());
 
-    if (range > 0) {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addLast(current);
-        current = model.messageById().first(current.next);
-      }
-    } else {
-      for (int i = 0; i <= remaining && current != null; i++) {
-        found.addFirst(current);
-        current = model.messageById().first(current.previous);
-      }
-    }
+    return range > 0 ?
+        root.log.slice(root.index, root.index + reach + 1) :
+        root.log.slice(root.index - reach, root.index + 1);
+  }
 
-    return found;
+  @Override
+  public Collection<Message> searchMessages(String query,
+                                            boolean phrase,
+                                            Uuid conversation,
+                                            Time start,
+                                            Time end,
+                                            int offset,
+                                            int limit) {
+    return model.messageText().search(query, phrase, conversation, start, end, offset, limit);
   }
 
   @Override
@@ -191,7 +199,69 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
-  private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
+  // FIND
+  //
+  // The values in the index whose text matches. For regular expressions the
+  // index only narrows the search to the values that have the text every
+  // match must have (see Patterns), and the pattern is run on each of those.
+  // An expression that can not be compiled finds nothing. If matching runs
+  // out of steps, whatever was found by then is returned.
+  private <T> Collection<T> find(TrigramIndex<T> index, Text<T> text, String query, int match) {
+
+    if (match == TextMatch.SUBSTRING) {
+      return index.containing(query);
+    }
+
+    if (match == TextMatch.PREFIX) {
+      return index.startingWith(query);
+    }
+
+    if (match != TextMatch.REGEX) {
+      LOG.warning("Unknown text match %d", match);
+      return Collections.emptyList();
+    }
+
+    final LinearPattern pattern;
+
+    try {
+      pattern = patterns.compile(query);
+    } catch (PatternSyntaxException ex) {
+      LOG.info("Rejected filter: %s", ex.getMessage());
+      return Collections.emptyList();
+    }
+
+    final LinearPattern.Budget budget = new LinearPattern.Budget(Patterns.STEP_BUDGET);
+    final Collection<T> found = new ArrayList<>();
+
+    try {
+      for (final T candidate : index.candidates(Patterns.requiredLiteral(query))) {
+        if (pattern.matches(text.of(candidate), budget)) {
+          found.add(candidate);
+        }
+      }
+    } catch (LinearPattern.BudgetExceeded ex) {
+      exhausted.increment();
+      LOG.warning("Filter %s ran out of steps after %d matches", query, found.size());
+    }
+
+    return found;
+  }
+
+  private interface Text<T> {
+    String of(T value);
+  }
+
+  private static final Text<Conversation> TITLE = new Text<Conversation>() {
+    @Override
+    public String of(Conversation value) { return value.title; }
+  };
+
+  private static final Text<User> NAME = new Text<User>() {
+    @Override
+    public String of(User value) { return value.name; }
+  };
+
+  private static <T> Collection<T> intersect(UuidIndex<T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
     // yielding duplicates in the result.
@@ -0,0 +1,44 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// BUFFER SERIALIZER
+//
+// The same encoding as a Serializer but to and from a ByteBuffer (which may be
+// direct) rather than a stream. Everything is moved with the buffer's bulk
+// operations so that a value can be encoded straight into the buffer that
+// will be handed to a channel.
+//
+// Whatever a BufferSerializer writes must be byte-for-byte what the matching
+// Serializer writes, so that either can read what the other wrote. Buffers
+// must be left in their default (big-endian) byte order.
+public interface BufferSerializer<T> {
+
+  // The exact number of bytes that "write" will use for the value, so that a
+  // buffer of the right size can be made before writing.
+  int size(T value) throws IOException;
+
+  // Write the value at the buffer's position. The buffer must have at least
+  // "size(value)" bytes remaining.
+  void write(ByteBuffer out, T value) throws IOException;
+
+  // Read a value starting at the buffer's position. Throws an EOFException if
+  // the buffer ends part way through the value.
+  T read(ByteBuffer in) throws IOException;
+
+}
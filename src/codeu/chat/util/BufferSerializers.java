@@ -0,0 +1,235 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// BUFFER SERIALIZERS
+//
+// The ByteBuffer versions of the serializers in Serializers. Each one writes
+// exactly the same bytes as its stream version.
+public final class BufferSerializers {
+
+  public static final BufferSerializer<Boolean> BOOLEAN = new BufferSerializer<Boolean>() {
+
+    @Override
+    public int size(Boolean value) {
+      return 1;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Boolean value) {
+      out.put((byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public Boolean read(ByteBuffer in) throws IOException {
+      return readByte(in) != 0;
+    }
+  };
+
+  public static final BufferSerializer<Integer> INTEGER = new BufferSerializer<Integer>() {
+
+    @Override
+    public int size(Integer value) {
+      return 4;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Integer value) {
+      out.putInt(value);
+    }
+
+    @Override
+    public Integer read(ByteBuffer in) throws IOException {
+      require(in, 4);
+      return in.getInt();
+    }
+  };
+
+  public static final BufferSerializer<Long> LONG = new BufferSerializer<Long>() {
+
+    @Override
+    public int size(Long value) {
+      return 8;
+    }
+
+    @Override
+    public void write(ByteBuffer out, Long value) {
+      out.putLong(value);
+    }
+
+    @Override
+    public Long read(ByteBuffer in) throws IOException {
+      require(in, 8);
+      return in.getLong();
+    }
+  };
+
+  public static final BufferSerializer<byte[]> BYTES = new BufferSerializer<byte[]>() {
+
+    @Override
+    public int size(byte[] value) {
+      return 4 + value.length;
+    }
+
+    @Override
+    public void write(ByteBuffer out, byte[] value) {
+      out.putInt(value.length);
+      out.put(value);
+    }
+
+    @Override
+    public byte[] read(ByteBuffer in) throws IOException {
+
+      require(in, 4);
+      final int length = in.getInt();
+
+      if (length < 0) {
+        throw new IOException(String.format("Bad byte array length %d", length));
+      }
+
+      require(in, length);
+      final byte[] array = new byte[length];
+      in.get(array);
+
+      return array;
+    }
+  };
+
+  // Like Serializers.STRING this uses the platform's default charset. "size"
+  // has to encode the string to know its length, so callers that write many
+  // strings should size and write each value once.
+  public static final BufferSerializer<String> STRING = new BufferSerializer<String>() {
+
+    @Override
+    public int size(String value) {
+      return 4 + value.getBytes().length;
+    }
+
+    @Override
+    public void write(ByteBuffer out, String value) throws IOException {
+      BYTES.write(out, value.getBytes());
+    }
+
+    @Override
+    public String read(ByteBuffer in) throws IOException {
+      return new String(BYTES.read(in));
+    }
+  };
+
+  private BufferSerializers() { }
+
+  public static <T> BufferSerializer<Collection<T>> collection(final BufferSerializer<T> serializer) {
+
+    return new BufferSerializer<Collection<T>>() {
+
+      @Override
+      public int size(Collection<T> value) throws IOException {
+        int size = 4;
+        for (final T x : value) {
+          size += serializer.size(x);
+        }
+        return size;
+      }
+
+      @Override
+      public void write(ByteBuffer out, Collection<T> value) throws IOException {
+        out.putInt(value.size());
+        for (final T x : value) {
+          serializer.write(out, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(ByteBuffer in) throws IOException {
+
+        require(in, 4);
+        final int size = in.getInt();
+
+        // Every value takes at least one byte, so a size bigger than what is
+        // left must be bad and should not be used to size the list.
+        if (size < 0 || size > in.remaining()) {
+          throw new IOException(String.format("Bad collection size %d", size));
+        }
+
+        final Collection<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(in));
+        }
+        return list;
+      }
+    };
+  }
+
+  public static <T> BufferSerializer<T> nullable(final BufferSerializer<T> serializer) {
+
+    final byte NO_VALUE = 0x00;
+    final byte YES_VALUE = (byte) 0xFF;
+
+    return new BufferSerializer<T>() {
+
+      @Override
+      public int size(T value) throws IOException {
+        return value == null ? 1 : 1 + serializer.size(value);
+      }
+
+      @Override
+      public void write(ByteBuffer out, T value) throws IOException {
+        if (value == null) {
+          out.put(NO_VALUE);
+        } else {
+          out.put(YES_VALUE);
+          serializer.write(out, value);
+        }
+      }
+
+      @Override
+      public T read(ByteBuffer in) throws IOException {
+        return readByte(in) == 0 ? null : serializer.read(in);
+      }
+    };
+  }
+
+  // ENCODE
+  //
+  // Write the value into a new buffer of exactly the right size. The buffer is
+  // flipped and ready to be read from (or written to a channel).
+  public static <T> ByteBuffer encode(BufferSerializer<T> serializer, T value) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(serializer.size(value));
+    serializer.write(buffer, value);
+    buffer.flip();
+    return buffer;
+  }
+
+  // READ BYTE
+  //
+  // Read one unsigned byte, failing if the buffer has nothing left.
+  static int readByte(ByteBuffer in) throws IOException {
+    require(in, 1);
+    return in.get() & 0xFF;
+  }
+
+  private static void require(ByteBuffer in, int count) throws IOException {
+    if (in.remaining() < count) {
+      throw new EOFException(String.format(
+          "Needed %d bytes but only %d are left", count, in.remaining()));
+    }
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// COMPACT
+//
+// The compact encoding used from protocol version 2 on for responses that
+// carry many values of the same kind (such as a list of messages). Unlike a
+// Serializer it remembers what it wrote last, so each value is written as the
+// difference from the one before it:
+//
+//   - Integers and longs are zig-zag varints (see Serializers.VARINT).
+//   - Times are written as the change from the last time written, so a run of
+//     messages sent close together takes a byte or two per time.
+//   - Uuids are written root first. Only the links after the part shared with
+//     the last Uuid are written, each as the change from the last Uuid's link
+//     at the same depth. As every Uuid made by a server shares its root and
+//     most are close to each other, a typical Uuid takes three or four bytes
+//     instead of nine.
+//
+// A Writer and a Reader must see the same values in the same order, so one of
+// each is used for a single response.
+public final class Compact {
+
+  private Compact() { }
+
+  public static final class Writer {
+
+    private final OutputStream out;
+
+    private Uuid lastUuid = null;
+    private long lastTime = 0;
+
+    public Writer(OutputStream out) {
+      this.out = out;
+    }
+
+    public void writeInt(int value) throws IOException {
+      Serializers.VARINT.write(out, value);
+    }
+
+    public void writeLong(long value) throws IOException {
+      Serializers.VARLONG.write(out, value);
+    }
+
+    public void writeTime(Time value) throws IOException {
+      Serializers.VARLONG.write(out, value.inMs() - lastTime);
+      lastTime = value.inMs();
+    }
+
+    // Raw bytes, without a length.
+    public void write(byte[] bytes) throws IOException {
+      out.write(bytes);
+    }
+
+    public void writeString(String value) throws IOException {
+      final byte[] bytes = value.getBytes();
+      Serializers.VARINT.write(out, bytes.length);
+      out.write(bytes);
+    }
+
+    // A null Uuid is written as having no links.
+    public void writeUuid(Uuid value) throws IOException {
+
+      final int length = Uuid.length(value);
+      final int lastLength = Uuid.length(lastUuid);
+
+      if (length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      int shared = 0;
+      while (shared < length && shared < lastLength && value.link(shared) == lastUuid.link(shared)) {
+        shared++;
+      }
+
+      Serializers.VARINT.write(out, shared);
+      Serializers.VARINT.write(out, length - shared);
+
+      for (int i = shared; i < length; i++) {
+        Serializers.VARINT.write(out, value.link(i) - (i < lastLength ? lastUuid.link(i) : 0));
+      }
+
+      lastUuid = value;
+    }
+  }
+
+  public static final class Reader {
+
+    private final InputStream in;
+
+    private int[] lastUuid = new int[0];
+    private long lastTime = 0;
+
+    public Reader(InputStream in) {
+      this.in = in;
+    }
+
+    public int readInt() throws IOException {
+      return Serializers.VARINT.read(in);
+    }
+
+    public long readLong() throws IOException {
+      return Serializers.VARLONG.read(in);
+    }
+
+    public Time readTime() throws IOException {
+      lastTime += Serializers.VARLONG.read(in);
+      return Time.fromMs(lastTime);
+    }
+
+    // Raw bytes, without a length. Fills the array.
+    public void readFully(byte[] bytes) throws IOException {
+      Serializers.readFully(in, bytes);
+    }
+
+    public String readString() throws IOException {
+
+      final int length = Serializers.VARINT.read(in);
+
+      if (length < 0) {
+        throw new IOException(String.format("Bad string length %d", length));
+      }
+
+      final byte[] bytes = new byte[length];
+      Serializers.readFully(in, bytes);
+
+      return new String(bytes);
+    }
+
+    public Uuid readUuid() throws IOException {
+
+      final int shared = Serializers.VARINT.read(in);
+      final int added = Serializers.VARINT.read(in);
+
+      // The same limit as Uuid.SERIALIZER.
+      if (shared < 0 || shared > lastUuid.length || added < 0 || added > 255 - shared) {
+        throw new IOException(String.format("Bad Uuid chain (shared=%d, added=%d)", shared, added));
+      }
+
+      final int[] chain = new int[shared + added];
+
+      for (int i = 0; i < shared; i++) {
+        chain[i] = lastUuid[i];
+      }
+
+      for (int i = shared; i < chain.length; i++) {
+        chain[i] = Serializers.VARINT.read(in) + (i < lastUuid.length ? lastUuid[i] : 0);
+      }
+
+      lastUuid = chain;
+
+      return Uuid.wrap(chain);
+    }
+  }
+}
@@ -0,0 +1,755 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+// LINEAR PATTERN
+//
+// A regular expression engine for expressions that come from clients. Unlike
+// java.util.regex it never backtracks: the expression is compiled to a
+// nondeterministic automaton and a text is matched by moving every live state
+// forward one character at a time. Matching takes at most (text length + 1)
+// times (program size) steps, whatever the expression, and each match can be
+// given a budget of steps that it is stopped at.
+//
+// Only part of the java.util.regex syntax is supported, and anything else is
+// rejected when compiling rather than being misread:
+//
+//   literals, escaped symbols ("\."), "\t", "\n", "\r", "\f"
+//   ".", classes ("[a-z]", "[^0-9]"), "\d", "\D", "\w", "\W", "\s", "\S"
+//   groups ("(...)" and "(?:...)"), alternation ("|")
+//   "*", "+", "?" and "{n}", "{n,}", "{n,m}" (lazy forms are accepted as
+//   they do not change whether a text matches)
+//   "^" at the very start and "$" at the very end
+//
+// Back references, look arounds, possessive quantifiers, flags, "\b", "\p{}"
+// and "\Q...\E" are rejected. Like Pattern.matches, the whole text must
+// match. Characters are compared as UTF-16 units.
+public final class LinearPattern {
+
+  // The largest program an expression may compile to. Counted repetition
+  // copies what it repeats, so this also limits things like "(a{100}){100}".
+  // Every copy counts, even of something that compiles to nothing (such as
+  // "(){100}"), so compiling is bounded by this as well.
+  public static final int MAX_PROGRAM = 10000;
+
+  // The largest count allowed in "{n}", "{n,}" and "{n,m}".
+  public static final int MAX_REPEAT = 1000;
+
+  // BUDGET
+  //
+  // A number of steps that can be shared by many matches (such as all of those
+  // made for one request). A match that runs out throws BudgetExceeded.
+  public static final class Budget {
+
+    private long remaining;
+
+    public Budget(long steps) {
+      this.remaining = steps;
+    }
+
+    public long remaining() {
+      return remaining;
+    }
+
+    void spend(int steps) {
+      remaining -= steps;
+      if (remaining < 0) {
+        throw new BudgetExceeded();
+      }
+    }
+  }
+
+  public static final class BudgetExceeded extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    BudgetExceeded() {
+      super("Pattern ran out of steps");
+    }
+  }
+
+  private static final int CHAR = 0;
+  private static final int ANY = 1;
+  private static final int CLASS = 2;
+  private static final int SPLIT = 3;
+  private static final int JUMP = 4;
+  private static final int MATCH = 5;
+
+  private final String pattern;
+
+  // The program. For CHAR "a" is the character, for CLASS it is the index of
+  // the class, for JUMP it is the target and for SPLIT both "a" and "b" are.
+  private final int[] op;
+  private final int[] a;
+  private final int[] b;
+  private final CharClass[] classes;
+
+  private LinearPattern(String pattern, Compiler compiler) {
+    this.pattern = pattern;
+    this.op = Arrays.copyOf(compiler.op, compiler.size);
+    this.a = Arrays.copyOf(compiler.a, compiler.size);
+    this.b = Arrays.copyOf(compiler.b, compiler.size);
+    this.classes = compiler.classes.toArray(new CharClass[compiler.classes.size()]);
+  }
+
+  // COMPILE
+  //
+  // Throws PatternSyntaxException if the expression is not valid or uses
+  // something that is not supported.
+  public static LinearPattern compile(String pattern) {
+    final Node root = new Parser(pattern).parse();
+    final Compiler compiler = new Compiler(pattern);
+    compiler.emit(root);
+    compiler.add(MATCH, 0, 0);
+    return new LinearPattern(pattern, compiler);
+  }
+
+  public String pattern() {
+    return pattern;
+  }
+
+  public int programSize() {
+    return op.length;
+  }
+
+  public boolean matches(CharSequence text) {
+    return matches(text, new Budget(Long.MAX_VALUE));
+  }
+
+  // MATCHES
+  //
+  // Whether the whole text matches. Every state looked at costs one step of
+  // the budget.
+  public boolean matches(CharSequence text, Budget budget) {
+
+    final int[] marks = new int[op.length];
+    int mark = 0;
+
+    int[] current = new int[op.length];
+    int[] next = new int[op.length];
+    final int[] stack = new int[op.length];
+
+    int currentSize = follow(0, current, 0, marks, ++mark, stack, budget);
+
+    for (int i = 0; i < text.length() && currentSize > 0; i++) {
+
+      final char c = text.charAt(i);
+      final int nextMark = ++mark;
+      int nextSize = 0;
+
+      budget.spend(currentSize);
+
+      for (int j = 0; j < currentSize; j++) {
+
+        final int pc = current[j];
+
+        final boolean step;
+        switch (op[pc]) {
+          case CHAR:  step = a[pc] == c; break;
+          case ANY:   step = !isLineTerminator(c); break;
+          case CLASS: step = classes[a[pc]].contains(c); break;
+          default:    step = false; break;
+        }
+
+        if (step) {
+          nextSize = follow(pc + 1, next, nextSize, marks, nextMark, stack, budget);
+        }
+      }
+
+      final int[] swap = current;
+      current = next;
+      next = swap;
+      currentSize = nextSize;
+    }
+
+    for (int j = 0; j < currentSize; j++) {
+      if (op[current[j]] == MATCH) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // FOLLOW
+  //
+  // Add the state and every state it reaches without reading a character
+  // (through jumps and splits) to the list, skipping any already on it.
+  private int follow(int start, int[] list, int size, int[] marks, int mark, int[] stack, Budget budget) {
+
+    int top = 0;
+    stack[top++] = start;
+
+    while (top > 0) {
+
+      final int pc = stack[--top];
+
+      if (marks[pc] == mark) {
+        continue;
+      }
+
+      marks[pc] = mark;
+      budget.spend(1);
+
+      if (op[pc] == JUMP) {
+        stack[top++] = a[pc];
+      } else if (op[pc] == SPLIT) {
+        // Pushed in reverse so that "a" is looked at first.
+        stack[top++] = b[pc];
+        stack[top++] = a[pc];
+      } else {
+        list[size++] = pc;
+      }
+    }
+
+    return size;
+  }
+
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  // NODE
+  //
+  // The parsed form of an expression.
+  private static final class Node {
+
+    static final int LITERAL = 0;
+    static final int DOT = 1;
+    static final int SET = 2;
+    static final int CONCAT = 3;
+    static final int ALTERNATE = 4;
+    static final int REPEAT = 5;
+
+    final int kind;
+    final char literal;
+    final CharClass set;
+    final List<Node> children;
+    final int min;
+    final int max;  // -1 for no limit
+
+    private Node(int kind, char literal, CharClass set, List<Node> children, int min, int max) {
+      this.kind = kind;
+      this.literal = literal;
+      this.set = set;
+      this.children = children;
+      this.min = min;
+      this.max = max;
+    }
+
+    static Node literal(char c) { return new Node(LITERAL, c, null, null, 0, 0); }
+    static Node dot() { return new Node(DOT, '\0', null, null, 0, 0); }
+    static Node set(CharClass set) { return new Node(SET, '\0', set, null, 0, 0); }
+    static Node concat(List<Node> children) { return new Node(CONCAT, '\0', null, children, 0, 0); }
+    static Node alternate(List<Node> children) { return new Node(ALTERNATE, '\0', null, children, 0, 0); }
+
+    static Node repeat(Node child, int min, int max) {
+      final List<Node> children = new ArrayList<>();
+      children.add(child);
+      return new Node(REPEAT, '\0', null, children, min, max);
+    }
+  }
+
+  // CHAR CLASS
+  //
+  // A set of characters as inclusive ranges, plus any classes (such as "\d")
+  // that were put inside it.
+  private static final class CharClass {
+
+    private final List<char[]> ranges = new ArrayList<>();
+    private final List<CharClass> included = new ArrayList<>();
+    private boolean negated = false;
+
+    void add(char low, char high) {
+      ranges.add(new char[] { low, high });
+    }
+
+    void add(CharClass other) {
+      included.add(other);
+    }
+
+    boolean contains(char c) {
+
+      boolean found = false;
+
+      for (int i = 0; i < ranges.size() && !found; i++) {
+        found = ranges.get(i)[0] <= c && c <= ranges.get(i)[1];
+      }
+
+      for (int i = 0; i < included.size() && !found; i++) {
+        found = included.get(i).contains(c);
+      }
+
+      return found != negated;
+    }
+  }
+
+  // PARSER
+  //
+  //   alternation := concat ( "|" concat )*
+  //   concat      := repeat*
+  //   repeat      := atom ( "*" | "+" | "?" | "{" n ( "," m? )? "}" ) "?"?
+  //   atom        := literal | "." | class | escape | "(" ( "?:" )? alternation ")"
+  private static final class Parser {
+
+    // Groups are parsed (and later compiled) by recursion, so deeper nesting
+    // than this is turned away before it can run out of stack.
+    private static final int MAX_DEPTH = 100;
+
+    private final String pattern;
+    private int at = 0;
+    private int depth = 0;
+
+    Parser(String pattern) {
+      this.pattern = pattern;
+    }
+
+    Node parse() {
+
+      if (peek('^')) {
+        at++;
+      }
+
+      final Node root = alternation();
+
+      if (peek('$') && at == pattern.length() - 1) {
+        at++;
+      }
+
+      if (at < pattern.length()) {
+        throw error(pattern.charAt(at) == ')' ? "Unmatched closing ')'" : "Unsupported construct");
+      }
+
+      return root;
+    }
+
+    private Node alternation() {
+
+      final List<Node> options = new ArrayList<>();
+      options.add(concat());
+
+      while (peek('|')) {
+        at++;
+        options.add(concat());
+      }
+
+      return options.size() == 1 ? options.get(0) : Node.alternate(options);
+    }
+
+    private Node concat() {
+
+      final List<Node> parts = new ArrayList<>();
+
+      while (at < pattern.length() && !peek('|') && !peek(')')) {
+        // "$" is only allowed at the very end, which "parse" checks for.
+        if (peek('$') && at == pattern.length() - 1) {
+          break;
+        }
+        parts.add(repeat());
+      }
+
+      return Node.concat(parts);
+    }
+
+    private Node repeat() {
+
+      final Node atom = atom();
+
+      if (at >= pattern.length()) {
+        return atom;
+      }
+
+      final int min;
+      final int max;
+
+      final char c = pattern.charAt(at);
+
+      if (c == '*') {
+        at++;
+        min = 0;
+        max = -1;
+      } else if (c == '+') {
+        at++;
+        min = 1;
+        max = -1;
+      } else if (c == '?') {
+        at++;
+        min = 0;
+        max = 1;
+      } else if (c == '{') {
+        at++;
+        min = number();
+        if (peek(',')) {
+          at++;
+          max = peek('}') ? -1 : number();
+        } else {
+          max = min;
+        }
+        expect('}');
+        if (max >= 0 && max < min) {
+          throw error("Illegal repetition range");
+        }
+        if (min > MAX_REPEAT || max > MAX_REPEAT) {
+          throw error("Repetition count is too large");
+        }
+      } else {
+        return atom;
+      }
+
+      if (peek('?')) {
+        // Lazy, which does not change what matches.
+        at++;
+      } else if (peek('+')) {
+        throw error("Possessive quantifiers are not supported");
+      }
+
+      if (peek('*') || peek('+') || peek('?') || peek('{')) {
+        throw error("Dangling meta character");
+      }
+
+      return Node.repeat(atom, min, max);
+    }
+
+    private Node atom() {
+
+      final char c = pattern.charAt(at);
+
+      switch (c) {
+        case '(': {
+          at++;
+          if (peek('?')) {
+            if (at + 1 < pattern.length() && pattern.charAt(at + 1) == ':') {
+              at += 2;
+            } else {
+              throw error("Only (?: groups are supported");
+            }
+          }
+          if (++depth > MAX_DEPTH) {
+            throw error("Pattern is nested too deeply");
+          }
+          final Node inner = alternation();
+          expect(')');
+          depth--;
+          return inner;
+        }
+        case '.':
+          at++;
+          return Node.dot();
+        case '[':
+          return Node.set(characterClass());
+        case '\\':
+          return escape(false);
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw error("Dangling meta character '" + c + "'");
+        case '^':
+        case '$':
+          throw error("Anchors are only supported at the start and end");
+        default:
+          at++;
+          return Node.literal(c);
+      }
+    }
+
+    // Parse the escape at "at". In a class only single characters and class
+    // escapes make sense.
+    private Node escape(boolean inClass) {
+
+      at++;
+
+      if (at >= pattern.length()) {
+        throw error("Unexpected end of pattern");
+      }
+
+      final char c = pattern.charAt(at++);
+
+      switch (c) {
+        case 't': return Node.literal('\t');
+        case 'n': return Node.literal('\n');
+        case 'r': return Node.literal('\r');
+        case 'f': return Node.literal('\f');
+        case 'd': return Node.set(digits(false));
+        case 'D': return Node.set(digits(true));
+        case 'w': return Node.set(word(false));
+        case 'W': return Node.set(word(true));
+        case 's': return Node.set(space(false));
+        case 'S': return Node.set(space(true));
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            throw error("Unsupported escape \\" + c);
+          }
+          return Node.literal(c);
+      }
+    }
+
+    private CharClass characterClass() {
+
+      at++;  // "["
+
+      final CharClass set = new CharClass();
+
+      if (peek('^')) {
+        at++;
+        set.negated = true;
+      }
+
+      boolean first = true;
+
+      while (true) {
+
+        if (at >= pattern.length()) {
+          throw error("Unclosed character class");
+        }
+
+        final char c = pattern.charAt(at);
+
+        if (c == ']' && !first) {
+          at++;
+          return set;
+        }
+
+        if (c == '[' || (c == '&' && at + 1 < pattern.length() && pattern.charAt(at + 1) == '&')) {
+          throw error("Nested classes are not supported");
+        }
+
+        first = false;
+
+        final char low;
+
+        if (c == '\\') {
+          final Node escaped = escape(true);
+          if (escaped.kind == Node.SET) {
+            set.add(escaped.set);
+            continue;
+          }
+          low = escaped.literal;
+        } else {
+          at++;
+          low = c;
+        }
+
+        // A range, unless the "-" is the last thing in the class.
+        if (peek('-') && at + 1 < pattern.length() && pattern.charAt(at + 1) != ']') {
+          at++;
+          final char high;
+          if (peek('\\')) {
+            final Node escaped = escape(true);
+            if (escaped.kind != Node.LITERAL) {
+              throw error("Illegal character range");
+            }
+            high = escaped.literal;
+          } else if (peek('[')) {
+            throw error("Nested classes are not supported");
+          } else {
+            high = pattern.charAt(at++);
+          }
+          if (high < low) {
+            throw error("Illegal character range");
+          }
+          set.add(low, high);
+        } else {
+          set.add(low, low);
+        }
+      }
+    }
+
+    private int number() {
+
+      final int start = at;
+      while (at < pattern.length() && Character.isDigit(pattern.charAt(at)) && at - start < 6) {
+        at++;
+      }
+
+      if (at == start || (at < pattern.length() && Character.isDigit(pattern.charAt(at)))) {
+        throw error("Illegal repetition");
+      }
+
+      return Integer.parseInt(pattern.substring(start, at));
+    }
+
+    private boolean peek(char c) {
+      return at < pattern.length() && pattern.charAt(at) == c;
+    }
+
+    private void expect(char c) {
+      if (!peek(c)) {
+        throw error("Expected '" + c + "'");
+      }
+      at++;
+    }
+
+    private PatternSyntaxException error(String description) {
+      return new PatternSyntaxException(description, pattern, at);
+    }
+
+    private static CharClass digits(boolean negated) {
+      final CharClass set = new CharClass();
+      set.add('0', '9');
+      set.negated = negated;
+      return set;
+    }
+
+    private static CharClass word(boolean negated) {
+      final CharClass set = new CharClass();
+      set.add('a', 'z');
+      set.add('A', 'Z');
+      set.add('0', '9');
+      set.add('_', '_');
+      set.negated = negated;
+      return set;
+    }
+
+    private static CharClass space(boolean negated) {
+      final CharClass set = new CharClass();
+      set.add(' ', ' ');
+      set.add('\t', '\r');  // tab, new line, vertical tab, form feed, return
+      set.negated = negated;
+      return set;
+    }
+  }
+
+  // COMPILER
+  //
+  // Turns the parsed expression into a program for "matches".
+  private static final class Compiler {
+
+    private final String pattern;
+
+    int[] op = new int[16];
+    int[] a = new int[16];
+    int[] b = new int[16];
+    int size = 0;
+
+    // Instructions added plus copies made by repetition, which is how much
+    // compiling has cost so far.
+    private int work = 0;
+
+    final List<CharClass> classes = new ArrayList<>();
+
+    Compiler(String pattern) {
+      this.pattern = pattern;
+    }
+
+    int add(int code, int first, int second) {
+
+      spend();
+
+      if (size == op.length) {
+        op = Arrays.copyOf(op, 2 * size);
+        a = Arrays.copyOf(a, 2 * size);
+        b = Arrays.copyOf(b, 2 * size);
+      }
+
+      op[size] = code;
+      a[size] = first;
+      b[size] = second;
+
+      return size++;
+    }
+
+    private void spend() {
+      if (++work > MAX_PROGRAM) {
+        throw new PatternSyntaxException("Pattern is too large", pattern, -1);
+      }
+    }
+
+    void emit(Node node) {
+
+      switch (node.kind) {
+
+        case Node.LITERAL:
+          add(CHAR, node.literal, 0);
+          break;
+
+        case Node.DOT:
+          add(ANY, 0, 0);
+          break;
+
+        case Node.SET:
+          classes.add(node.set);
+          add(CLASS, classes.size() - 1, 0);
+          break;
+
+        case Node.CONCAT:
+          for (final Node child : node.children) {
+            emit(child);
+          }
+          break;
+
+        case Node.ALTERNATE: {
+          // split L1, next; L1: option; jump end; next: ...
+          final List<Integer> jumps = new ArrayList<>();
+          for (int i = 0; i < node.children.size(); i++) {
+            if (i == node.children.size() - 1) {
+              emit(node.children.get(i));
+            } else {
+              final int split = add(SPLIT, 0, 0);
+              a[split] = size;
+              emit(node.children.get(i));
+              jumps.add(add(JUMP, 0, 0));
+              b[split] = size;
+            }
+          }
+          for (final int jump : jumps) {
+            a[jump] = size;
+          }
+          break;
+        }
+
+        case Node.REPEAT: {
+          final Node child = node.children.get(0);
+
+          for (int i = 0; i < node.min; i++) {
+            spend();
+            emit(child);
+          }
+
+          if (node.max < 0) {
+            // loop: split body, end; body: child; jump loop; end:
+            final int loop = add(SPLIT, 0, 0);
+            a[loop] = size;
+            emit(child);
+            add(JUMP, loop, 0);
+            b[loop] = size;
+          } else {
+            // Each optional copy can skip to the end.
+            final List<Integer> splits = new ArrayList<>();
+            for (int i = node.min; i < node.max; i++) {
+              spend();
+              final int split = add(SPLIT, 0, 0);
+              a[split] = size;
+              splits.add(split);
+              emit(child);
+            }
+            for (final int split : splits) {
+              b[split] = size;
+            }
+          }
+          break;
+        }
+
+        default:
+          throw new IllegalStateException("Unknown node " + node.kind);
+      }
+    }
+  }
+}
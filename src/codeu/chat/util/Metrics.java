@@ -0,0 +1,168 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// METRICS
+//
+// A process wide registry of named numbers that describe how the process is
+// doing (such as how deep a queue is or how long requests wait). Like Logger,
+// any class can get a metric by name and asking for the same name twice gives
+// back the same metric. Everything can be read at once with "report" so that
+// it can be logged.
+//
+// Metrics are meant to be cheap enough to update on every request.
+public final class Metrics {
+
+  // COUNTER
+  //
+  // A number that only goes up, such as how many requests were rejected.
+  public static final class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+      value.incrementAndGet();
+    }
+
+    public void add(long amount) {
+      value.addAndGet(amount);
+    }
+
+    public long get() {
+      return value.get();
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(get());
+    }
+  }
+
+  // TIMER
+  //
+  // Records how long something took. Keeps the count, total, and maximum so
+  // that the mean can be found without keeping every sample.
+  public static final class Timer {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+
+      for (long max = maxNanos.get(); nanos > max; max = maxNanos.get()) {
+        if (maxNanos.compareAndSet(max, nanos)) {
+          break;
+        }
+      }
+    }
+
+    public long count() {
+      return count.get();
+    }
+
+    public long totalNanos() {
+      return totalNanos.get();
+    }
+
+    public long maxNanos() {
+      return maxNanos.get();
+    }
+
+    public long meanNanos() {
+      final long count = count();
+      return count == 0 ? 0 : totalNanos() / count;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%.3fms max=%.3fms",
+                           count(),
+                           meanNanos() / 1e6,
+                           maxNanos() / 1e6);
+    }
+  }
+
+  // GAUGE
+  //
+  // A number that is read when it is reported, such as the current depth of a
+  // queue.
+  public interface Gauge {
+
+    long value();
+
+  }
+
+  private static final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+  private Metrics() { }
+
+  public static Counter counter(String name) {
+    return get(name, new Counter(), Counter.class);
+  }
+
+  public static Timer timer(String name) {
+    return get(name, new Timer(), Timer.class);
+  }
+
+  // GAUGE
+  //
+  // Register a gauge. A gauge registered with the name of an existing gauge
+  // replaces it.
+  public static void gauge(String name, final Gauge gauge) {
+    metrics.put(name, new Object() {
+      @Override
+      public String toString() {
+        return Long.toString(gauge.value());
+      }
+    });
+  }
+
+  // REPORT
+  //
+  // Every metric and its current value, sorted by name.
+  public static Map<String, String> report() {
+
+    final Map<String, String> report = new TreeMap<>();
+
+    for (final Map.Entry<String, Object> entry : metrics.entrySet()) {
+      report.put(entry.getKey(), entry.getValue().toString());
+    }
+
+    return report;
+  }
+
+  private static <T> T get(String name, T created, Class<T> type) {
+
+    final Object existing = metrics.putIfAbsent(name, created);
+    final Object metric = existing == null ? created : existing;
+
+    if (!type.isInstance(metric)) {
+      throw new IllegalArgumentException(String.format(
+          "Metric %s is not a %s", name, type.getSimpleName()));
+    }
+
+    return type.cast(metric);
+  }
+}
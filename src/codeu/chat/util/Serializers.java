@@ -14,6 +14,7 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,28 +32,39 @@ public final class Serializers {
 
     @Override
     public Boolean read(InputStream in) throws IOException {
-      return in.read() != 0;
+      return readByte(in) != 0;
     }
   };
 
+  // The integer, long, and byte array serializers move their bytes in bulk
+  // rather than one at a time as each call on a socket stream can be a system
+  // call.
+
   public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
 
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
 
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
+      final byte[] bytes = new byte[4];
+
+      for (int i = 0; i < 4; i++) {
+        bytes[i] = (byte) (value >>> (24 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
     public Integer read(InputStream in) throws IOException {
 
+      final byte[] bytes = new byte[4];
+      readFully(in, bytes);
+
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | (bytes[i] & 0xFF);
       }
 
       return value;
@@ -65,19 +77,26 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, Long value) throws IOException {
 
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
+      final byte[] bytes = new byte[8];
+
+      for (int i = 0; i < 8; i++) {
+        bytes[i] = (byte) (value >>> (56 - 8 * i));
       }
 
+      out.write(bytes);
+
     }
 
     @Override
     public Long read(InputStream in) throws IOException {
 
+      final byte[] bytes = new byte[8];
+      readFully(in, bytes);
+
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | (bytes[i] & 0xFF);
       }
 
       return value;
@@ -99,12 +118,14 @@ public final class Serializers {
     public byte[] read(InputStream input) throws IOException {
 
       final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
+      if (length < 0) {
+        throw new IOException(String.format("Bad byte array length %d", length));
       }
 
+      final byte[] array = new byte[length];
+      readFully(input, array);
+
       return array;
 
     }
@@ -127,6 +148,50 @@ public final class Serializers {
     }
   };
 
+  // VARINT and VARLONG
+  //
+  // Compact versions of INTEGER and LONG. The value is zig-zag encoded (so
+  // that small negative numbers are small too) and written seven bits per
+  // byte, lowest bits first, with the top bit of each byte set if more bytes
+  // follow. Values near zero take one byte instead of four or eight. They are
+  // not used by the original protocol, only where a newer protocol version
+  // asks for them (see Compact).
+
+  public static final Serializer<Integer> VARINT = new Serializer<Integer>() {
+
+    @Override
+    public void write(OutputStream out, Integer value) throws IOException {
+      writeUnsigned(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public Integer read(InputStream in) throws IOException {
+
+      final long raw = readUnsigned(in, 5);
+
+      if ((raw >>> 32) != 0) {
+        throw new IOException("Varint is too big for an integer");
+      }
+
+      final int value = (int) raw;
+      return (value >>> 1) ^ -(value & 1);
+    }
+  };
+
+  public static final Serializer<Long> VARLONG = new Serializer<Long>() {
+
+    @Override
+    public void write(OutputStream out, Long value) throws IOException {
+      writeUnsigned(out, (value << 1) ^ (value >> 63));
+    }
+
+    @Override
+    public Long read(InputStream in) throws IOException {
+      final long value = readUnsigned(in, 10);
+      return (value >>> 1) ^ -(value & 1);
+    }
+  };
+
   public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
 
     return new Serializer<Collection<T>>() {
@@ -170,9 +235,77 @@ public final class Serializers {
 
       @Override
       public T read(InputStream in) throws IOException {
-        return in.read() == NO_VALUE ? null : serializer.read(in);
+        return readByte(in) == NO_VALUE ? null : serializer.read(in);
       }
     };
   }
-}
 
+  // READ BYTE
+  //
+  // Read a single byte, throwing an exception rather than returning -1 if the
+  // stream has ended.
+  static int readByte(InputStream in) throws IOException {
+
+    final int value = in.read();
+
+    if (value < 0) {
+      throw new EOFException();
+    }
+
+    return value;
+  }
+
+  // READ FULLY
+  //
+  // Fill the array from the stream. A single read may return fewer bytes than
+  // asked for, so keep reading until the array is full or the stream ends.
+  static void readFully(InputStream in, byte[] bytes) throws IOException {
+
+    int read = 0;
+
+    while (read < bytes.length) {
+
+      final int count = in.read(bytes, read, bytes.length - read);
+
+      if (count < 0) {
+        throw new EOFException();
+      }
+
+      read += count;
+    }
+  }
+
+  // The value is treated as unsigned. Bytes are collected and written with
+  // one call, like INTEGER and LONG.
+  private static void writeUnsigned(OutputStream out, long value) throws IOException {
+
+    final byte[] bytes = new byte[10];
+    int count = 0;
+
+    while ((value & ~0x7FL) != 0) {
+      bytes[count++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+
+    bytes[count++] = (byte) value;
+
+    out.write(bytes, 0, count);
+  }
+
+  private static long readUnsigned(InputStream in, int maxBytes) throws IOException {
+
+    long value = 0;
+
+    for (int i = 0; i < maxBytes; i++) {
+
+      final int next = readByte(in);
+      value |= (long) (next & 0x7F) << (7 * i);
+
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+
+    throw new IOException("Varint is too long");
+  }
+}
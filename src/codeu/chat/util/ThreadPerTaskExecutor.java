@@ -0,0 +1,78 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// THREAD PER TASK EXECUTOR
+//
+// An executor that starts a new thread for every task it is given. This lets
+// blocking code (like reading a request from a socket) be written in the
+// simple blocking style without one slow task holding up any other.
+//
+// When running on a JVM that has virtual threads (Java 21 and later) each task
+// gets a virtual thread, which makes it cheap to have many thousands of them
+// blocked at once. On older JVMs normal daemon threads are used. Reflection is
+// used to find virtual threads so that the project still builds with Java 7.
+public final class ThreadPerTaskExecutor implements Executor {
+
+  private final static Logger.Log LOG = Logger.newLog(ThreadPerTaskExecutor.class);
+
+  private final ThreadFactory factory;
+  private final boolean virtual;
+
+  public ThreadPerTaskExecutor(final String name) {
+
+    final ThreadFactory virtualFactory = virtualThreadFactory();
+
+    this.virtual = virtualFactory != null;
+    this.factory = virtual ? virtualFactory : new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  public boolean usesVirtualThreads() {
+    return virtual;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    factory.newThread(task).start();
+  }
+
+  private static ThreadFactory virtualThreadFactory() {
+    try {
+
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+          .getMethod("factory")
+          .invoke(builder);
+
+    } catch (Exception ex) {
+
+      // This is expected on anything before Java 21.
+      LOG.info("Virtual threads are not available, using platform threads.");
+      return null;
+
+    }
+  }
+}
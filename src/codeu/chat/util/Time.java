@@ -17,6 +17,7 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -39,6 +40,30 @@ public final class Time implements Comparable<Time> {
     }
   };
 
+  public static final BufferSerializer<Time> BUFFER_SERIALIZER = new BufferSerializer<Time>() {
+
+    @Override
+    public int size(Time value) {
+
+      return 8;
+
+    }
+
+    @Override
+    public void write(ByteBuffer out, Time value) {
+
+      out.putLong(value.inMs());
+
+    }
+
+    @Override
+    public Time read(ByteBuffer in) throws IOException {
+
+      return Time.fromMs(BufferSerializers.LONG.read(in));
+
+    }
+  };
+
   private static final SimpleDateFormat formatter =
       new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
 
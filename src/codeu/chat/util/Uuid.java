@@ -15,11 +15,28 @@
 package codeu.chat.util;
 
 import java.lang.StringBuilder;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+// UUID
+//
+// An id made of a chain of ints, from a root (such as the id of the server that
+// made it) down to the id itself. The chain is kept flat, root first, in one
+// array, and the hash is worked out once when the Uuid is made. Comparing two
+// Uuids is then a hash check and an array compare rather than a walk down two
+// linked chains, and reading one from the wire makes one array rather than a
+// Uuid per link.
+//
+// "root()" still gives the Uuid for the chain without its last link. When a
+// Uuid is built from its root that root is kept. Otherwise it is made the first
+// time it is asked for, through a pool of roots (see Pool), so that all the
+// ids under the same server share one root.
 public final class Uuid {
 
   public static final Uuid NULL = new Uuid(0);
@@ -29,47 +46,111 @@ public final class Uuid {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
-      int length = 0;
-      for (Uuid current = value; current != null; current = current.root()) {
-        length += 1;
-      }
+      final int length = length(value);
 
       // To make things easy, limit the max length to be 255. It should be unlikely
       // that this limit will ever be reached as most chains should be less than
       // three long.
-      if (length >= 0 && length <= 255) {
-        out.write(length);
-      } else {
+      if (length > 255) {
         throw new IOException("Max supported Uuid chain length is 255");
       }
 
-      for (Uuid current = value; current != null; current = current.root()) {
-        Serializers.INTEGER.write(out, current.id());
+      // The length and the links, tail first, in one write.
+      final byte[] bytes = new byte[1 + 4 * length];
+      bytes[0] = (byte) length;
+
+      for (int i = 0; i < length; i++) {
+        final int link = value.links[length - 1 - i];
+        bytes[1 + 4 * i] = (byte) (link >>> 24);
+        bytes[2 + 4 * i] = (byte) (link >>> 16);
+        bytes[3 + 4 * i] = (byte) (link >>> 8);
+        bytes[4 + 4 * i] = (byte) link;
       }
+
+      out.write(bytes);
     }
 
     @Override
     public Uuid read(InputStream in) throws IOException {
 
-      // "input.read" can only return one by of data so there is no need
+      // "readByte" can only return one byte of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
-      final int length = in.read();
-      final int[] chain = new int[length];
+      final int length = Serializers.readByte(in);
+
+      if (length == 0) {
+        return null;
+      }
+
+      final byte[] bytes = new byte[4 * length];
+      Serializers.readFully(in, bytes);
+
+      // Links arrive tail first.
+      final int[] links = new int[length];
 
       for (int i = 0; i < length; i++) {
-        chain[i] = Serializers.INTEGER.read(in);
+        links[length - 1 - i] = ((bytes[4 * i] & 0xFF) << 24) |
+                                ((bytes[4 * i + 1] & 0xFF) << 16) |
+                                ((bytes[4 * i + 2] & 0xFF) << 8) |
+                                (bytes[4 * i + 3] & 0xFF);
       }
 
-      Uuid head = null;
+      return new Uuid(links);
+    }
+  };
+
+  public static final BufferSerializer<Uuid> BUFFER_SERIALIZER = new BufferSerializer<Uuid>() {
+
+    @Override
+    public int size(Uuid value) throws IOException {
+      return 1 + 4 * checkedLength(value);
+    }
+
+    @Override
+    public void write(ByteBuffer out, Uuid value) throws IOException {
+
+      final int length = checkedLength(value);
+
+      out.put((byte) length);
 
       for (int i = length - 1; i >= 0; i--) {
-        head = new Uuid(head, chain[i]);
+        out.putInt(value.links[i]);
       }
+    }
+
+    @Override
+    public Uuid read(ByteBuffer in) throws IOException {
+
+      final int length = BufferSerializers.readByte(in);
 
-      return head;
+      if (in.remaining() < 4 * length) {
+        throw new EOFException("Buffer ended part way through a Uuid");
+      }
+
+      if (length == 0) {
+        return null;
+      }
+
+      final int[] links = new int[length];
+
+      for (int i = length - 1; i >= 0; i--) {
+        links[i] = in.getInt();
+      }
+
+      return new Uuid(links);
     }
-  };
 
+    private int checkedLength(Uuid value) throws IOException {
+
+      final int length = length(value);
+
+      // The same limit as SERIALIZER.
+      if (length > 255) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      return length;
+    }
+  };
 
   // GENERATOR
   //
@@ -85,25 +166,117 @@ public final class Uuid {
     Uuid make();
   }
 
-  private final Uuid root;
-  private final int id;
+  // POOL
+  //
+  // Hands out one shared instance for each distinct Uuid given to it, so that
+  // Uuids that are made over and over (such as a server's id, which is the
+  // root of every id it makes) do not each take their own memory. A pool only
+  // grows to its limit. After that, Uuids it does not already hold are given
+  // back as they are.
+  public static final class Pool {
+
+    private final ConcurrentMap<Uuid, Uuid> pool = new ConcurrentHashMap<>();
+    private final int limit;
+
+    public Pool(int limit) {
+      this.limit = limit;
+    }
+
+    public Uuid intern(Uuid value) {
+
+      if (value == null) {
+        return null;
+      }
+
+      final Uuid existing = pool.get(value);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      if (pool.size() >= limit) {
+        return value;
+      }
+
+      final Uuid raced = pool.putIfAbsent(value, value);
+      return raced == null ? value : raced;
+    }
+
+    public int size() {
+      return pool.size();
+    }
+  }
+
+  // Roots are few (one per server, and a few more for things like user
+  // generations), so this only needs to be big enough to never fill up.
+  private static final Pool ROOTS = new Pool(4096);
+
+  // The links from the root down. Never empty and never changed.
+  private final int[] links;
+  private final int hash;
+
+  // Set when made from a root, otherwise made when first asked for. Racing
+  // threads may both make it, which does no harm as they make equal Uuids.
+  private Uuid root;
 
   public Uuid(Uuid root, int id) {
+
+    final int length = length(root);
+
+    this.links = new int[length + 1];
+    if (root != null) {
+      System.arraycopy(root.links, 0, links, 0, length);
+    }
+    this.links[length] = id;
+
     this.root = root;
-    this.id = id;
+    this.hash = hash(links);
   }
 
   public Uuid(int id) {
-    this.root = null;
-    this.id = id;
+    this((Uuid) null, id);
+  }
+
+  // The links must not be changed by the caller after this.
+  private Uuid(int[] links) {
+    this.links = links;
+    this.hash = hash(links);
+  }
+
+  // WRAP
+  //
+  // Make a Uuid from its links, root first, without copying them. For readers
+  // in this package that build the array themselves. Returns null for no
+  // links.
+  static Uuid wrap(int[] links) {
+    return links.length == 0 ? null : new Uuid(links);
   }
 
   public Uuid root() {
+
+    if (root == null && links.length > 1) {
+      root = ROOTS.intern(new Uuid(Arrays.copyOf(links, links.length - 1)));
+    }
+
     return root;
   }
 
   public int id() {
-    return id;
+    return links[links.length - 1];
+  }
+
+  // LENGTH
+  //
+  // The number of links in the chain, or 0 for null.
+  public static int length(Uuid value) {
+    return value == null ? 0 : value.links.length;
+  }
+
+  // LINK
+  //
+  // The link at "index" counting from the root, which is 0.
+  public int link(int index) {
+    return links[index];
   }
 
   @Override
@@ -112,7 +285,7 @@ public final class Uuid {
   }
 
   @Override
-  public int hashCode() { return hash(this); }
+  public int hashCode() { return hash; }
 
   @Override
   public String toString() {
@@ -121,7 +294,20 @@ public final class Uuid {
 
   // Check if two Uuids share the same root. This check is only one level deep.
   public static boolean related(Uuid a, Uuid b) {
-    return equals(a.root(), b.root());
+
+    final int length = a.links.length - 1;
+
+    if (length != b.links.length - 1) {
+      return false;
+    }
+
+    for (int i = 0; i < length; i++) {
+      if (a.links[i] != b.links[i]) {
+        return false;
+      }
+    }
+
+    return true;
   }
 
   // Check if two Uuids represent the same value even if they are different refereces. This
@@ -136,66 +322,59 @@ public final class Uuid {
       return true;
     }
 
-    if (a == null && b != null) {
-      return false;
-    }
-
-    if (a != null && b == null) {
+    if (a == null || b == null) {
       return false;
     }
 
-    // Check id before checking the root as the ids are more likely to differ
-    // and will short-circuit the logic preventing us from wasting time checking
-    // the full chain.
-    return a.id() == b.id() && equals(a.root(), b.root());
+    // Different hashes mean different Uuids, which is what most checks find.
+    return a.hash == b.hash && Arrays.equals(a.links, b.links);
 
   }
 
-  // Compute a hash code for the Uuids by walking up the chain.
-  private static int hash(Uuid id) {
+  // Hash the whole chain in order, so that chains with the same links in a
+  // different order hash differently, then mix the bits (the finishing step of
+  // MurmurHash3) so that ids that only differ in their low bits spread out
+  // across a hash table.
+  private static int hash(int[] links) {
 
-    int hash = 0;
+    int hash = 1;
 
-    for (Uuid current = id; current != null; current = current.root()) {
-      hash ^= Objects.hash(current.id());
+    for (final int link : links) {
+      hash = 31 * hash + link;
     }
 
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+
     return hash;
   }
 
   // Compute human-readable representation for Uuids
   // Use long internally to avoid negative integers.
   private static String toString(Uuid id) {
-    final StringBuilder build = new StringBuilder();
-    buildString(id, build);
-    return String.format("[UUID:%s]", build.substring(1));  // index of 1 to skip initial '.'
-  }
-
-  private static void buildString(Uuid current, StringBuilder build) {
     final long mask = (1L << 32) - 1;  // removes sign extension
-    if (current != null) {
-      buildString(current.root(), build);
-      build.append(".").append(current.id() & mask);
+    final StringBuilder build = new StringBuilder();
+    for (final int link : id.links) {
+      build.append(".").append(link & mask);
     }
+    return String.format("[UUID:%s]", build.substring(1));  // index of 1 to skip initial '.'
   }
 
   // FROM STRING
   //
   // Create a uuid from a sting.
   public static Uuid fromString(String string) {
-    return fromString(null, string.split("\\."), 0);
-  }
 
-  private static Uuid fromString(final Uuid root, String[] tokens, int index) {
+    final String[] tokens = string.split("\\.");
+    final int[] links = new int[tokens.length];
 
-    final int id = Integer.parseInt(tokens[index]);
-
-    final Uuid link = new Uuid(root, id);
-
-    final int nextIndex = index + 1;
+    for (int i = 0; i < tokens.length; i++) {
+      links[i] = Integer.parseInt(tokens[i]);
+    }
 
-    return nextIndex < tokens.length ?
-        fromString(link, tokens, nextIndex) :
-        link;
+    return new Uuid(links);
   }
 }
@@ -15,8 +15,6 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Socket;
 
 // CLIENT CONNECTION SOURCE
@@ -24,42 +22,31 @@ import java.net.Socket;
 // Implements the ConnectionSource interface for clients who know what
 // port on the host they will be connecting to.Calls to "connect" will
 // block until a connection is established or timeout.
+//
+// When "framed" is set, requests are sent as frames (see Frames). This is
+// needed when talking to a server that uses the SelectorConnectionSource.
 public final class ClientConnectionSource implements ConnectionSource {
 
   private final String host;
   private final int port;
+  private final boolean framed;
 
   public ClientConnectionSource(String host, int port) {
+    this(host, port, false);
+  }
+
+  public ClientConnectionSource(String host, int port, boolean framed) {
     this.host = host;
     this.port = port;
+    this.framed = framed;
   }
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(new Socket(host, port));
+    final Socket socket = new Socket(host, port);
+    return framed ? new FramedConnection(socket) : new StreamConnection(socket);
   }
 
   @Override
   public void close() throws IOException { }
-
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
 }
@@ -0,0 +1,241 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import codeu.chat.util.Metrics;
+
+// COMPRESSION
+//
+// Deflates large blocks of bytes (such as a session response) before they
+// are sent. Small blocks are sent as they are, as compressing them costs more
+// time than it saves. A block that does not get smaller is also sent as it
+// is. Both sides must agree to compression before it is used (see
+// NetworkCode.COMPRESSION_VERSION).
+//
+// A preset dictionary can be given for payloads that share a lot of text with
+// each other. Both sides must then be given the same dictionary. Deflate
+// records which dictionary a block needs, so a reader with the wrong one
+// fails instead of returning garbage.
+//
+// How much is saved and how long it takes is reported through Metrics.
+public final class Compression {
+
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  private static final Metrics.Counter originalBytes = Metrics.counter("compression.original.bytes");
+  private static final Metrics.Counter compressedBytes = Metrics.counter("compression.compressed.bytes");
+  private static final Metrics.Counter skipped = Metrics.counter("compression.skipped");
+  private static final Metrics.Timer deflateTime = Metrics.timer("compression.deflate");
+  private static final Metrics.Timer inflateTime = Metrics.timer("compression.inflate");
+
+  static {
+    Metrics.gauge("compression.ratio.percent", new Metrics.Gauge() {
+      @Override
+      public long value() {
+        final long original = originalBytes.get();
+        return original == 0 ? 100 : 100 * compressedBytes.get() / original;
+      }
+    });
+  }
+
+  private final int threshold;
+  private final byte[] dictionary;
+  private final int dictionaryId;
+
+  // Deflaters and inflaters hold native memory and are slow to make, so a few
+  // are kept for reuse. They are not kept per thread as the server may run
+  // each request on a new thread. One that is not kept is ended at once
+  // rather than left for the garbage collector to free.
+  static final int MAX_IDLE = 8;
+
+  // Guarded by "this".
+  private final Deque<Deflater> deflaters = new ArrayDeque<>();
+  private final Deque<Inflater> inflaters = new ArrayDeque<>();
+
+  public Compression() {
+    this(DEFAULT_THRESHOLD, null);
+  }
+
+  // COMPRESSION
+  //
+  // Blocks shorter than "threshold" bytes are never compressed. "dictionary"
+  // may be null.
+  public Compression(int threshold, byte[] dictionary) {
+
+    this.threshold = threshold;
+    this.dictionary = dictionary == null ? null : Arrays.copyOf(dictionary, dictionary.length);
+
+    final Adler32 adler = new Adler32();
+    if (dictionary != null) {
+      adler.update(dictionary);
+    }
+    this.dictionaryId = (int) adler.getValue();
+  }
+
+  // COMPRESS
+  //
+  // Returns the deflated bytes, or null if the block should be sent as it is.
+  public byte[] compress(byte[] data) {
+
+    if (data.length == 0 || data.length < threshold) {
+      return null;
+    }
+
+    final long start = System.nanoTime();
+
+    final Deflater deflater = takeDeflater();
+
+    // Anything that does not fit in fewer bytes than the original is not
+    // worth sending compressed.
+    final byte[] buffer = new byte[data.length - 1];
+    int length = 0;
+    final boolean smaller;
+
+    try {
+
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+
+      deflater.setInput(data);
+      deflater.finish();
+
+      while (!deflater.finished() && length < buffer.length) {
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+
+      smaller = deflater.finished();
+
+    } finally {
+      give(deflater);
+    }
+
+    deflateTime.record(System.nanoTime() - start);
+
+    if (!smaller) {
+      skipped.increment();
+      return null;
+    }
+
+    originalBytes.add(data.length);
+    compressedBytes.add(length);
+
+    return Arrays.copyOf(buffer, length);
+  }
+
+  // DECOMPRESS
+  //
+  // Inflate a block made by "compress". "length" is the size of the original
+  // block, which the sender must send along with the compressed bytes.
+  public byte[] decompress(byte[] data, int length) throws IOException {
+
+    Frames.checkSize(length);
+
+    final long start = System.nanoTime();
+
+    final Inflater inflater = takeInflater();
+    inflater.setInput(data);
+
+    final byte[] original = new byte[length];
+    int read = 0;
+    final boolean finished;
+
+    try {
+      while (!inflater.finished()) {
+
+        if (inflater.needsDictionary()) {
+          if (dictionary == null || inflater.getAdler() != dictionaryId) {
+            throw new IOException("Compressed block needs a dictionary that is not known");
+          }
+          inflater.setDictionary(dictionary);
+        }
+
+        final int count = inflater.inflate(original, read, original.length - read);
+
+        if (count == 0 && (inflater.needsInput() || read == original.length)) {
+          break;
+        }
+
+        read += count;
+      }
+      finished = inflater.finished();
+    } catch (DataFormatException ex) {
+      throw new IOException("Bad compressed block", ex);
+    } finally {
+      give(inflater);
+    }
+
+    if (!finished || read != length) {
+      throw new IOException(String.format(
+          "Compressed block should have been %d bytes", length));
+    }
+
+    inflateTime.record(System.nanoTime() - start);
+
+    return original;
+  }
+
+  // How many deflaters and inflaters are being kept for reuse.
+  synchronized int idle() {
+    return deflaters.size() + inflaters.size();
+  }
+
+  private synchronized Deflater takeDeflater() {
+    final Deflater deflater = deflaters.pollFirst();
+    return deflater == null ? new Deflater(Deflater.BEST_SPEED) : deflater;
+  }
+
+  private synchronized Inflater takeInflater() {
+    final Inflater inflater = inflaters.pollFirst();
+    return inflater == null ? new Inflater() : inflater;
+  }
+
+  private void give(Deflater deflater) {
+
+    deflater.reset();
+
+    synchronized (this) {
+      if (deflaters.size() < MAX_IDLE) {
+        deflaters.addFirst(deflater);
+        return;
+      }
+    }
+
+    deflater.end();
+  }
+
+  private void give(Inflater inflater) {
+
+    inflater.reset();
+
+    synchronized (this) {
+      if (inflaters.size() < MAX_IDLE) {
+        inflaters.addFirst(inflater);
+        return;
+      }
+    }
+
+    inflater.end();
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// FRAMED CONNECTION
+//
+// A connection over a socket that sends and receives frames (see Frames)
+// rather than raw bytes. Everything written to "out" is held until the
+// stream is flushed, at which point it is sent as one frame. Reading from
+// "in" will flush any pending output first, so the common pattern of writing
+// a request and then reading the response works without any explicit flush.
+// Closing the connection also flushes, so a response that is written and then
+// closed is sent as a single frame.
+final class FramedConnection implements SocketConnection {
+
+  private final Socket socket;
+  private final InputStream socketIn;
+  private final OutputStream socketOut;
+
+  private final FrameOutputStream out = new FrameOutputStream();
+  private final FrameInputStream in = new FrameInputStream();
+
+  public FramedConnection(Socket socket) throws IOException {
+    this.socket = socket;
+
+    // Every message is written in one piece and flushed, so there is nothing
+    // to gain from Nagle's algorithm and waiting on it only adds latency.
+    this.socket.setTcpNoDelay(true);
+
+    // Buffer the socket so that reading a frame's header and body is usually
+    // one system call rather than two.
+    this.socketIn = new BufferedInputStream(socket.getInputStream());
+    this.socketOut = socket.getOutputStream();
+  }
+
+  @Override
+  public InputStream in() {
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public boolean awaitInput() throws IOException {
+    return in.fill();
+  }
+
+  @Override
+  public boolean isUsable(boolean probe) {
+
+    try {
+
+      if (socket.isClosed() || in.available() > 0 || socketIn.available() > 0) {
+        return false;
+      }
+
+      if (probe) {
+        return StreamConnection.isOpen(socket, socketIn);
+      }
+
+      return true;
+
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  private final class FrameOutputStream extends ByteArrayOutputStream {
+
+    // Synchronized with "write" so that a flush from another thread (such as
+    // one reading from "in") never sends half of a write.
+    @Override
+    public synchronized void flush() throws IOException {
+      if (count > 0) {
+        Frames.write(socketOut, buf, 0, count);
+        reset();
+      }
+    }
+  }
+
+  private final class FrameInputStream extends InputStream {
+
+    private byte[] frame = new byte[0];
+    private int position = 0;
+
+    @Override
+    public int read() throws IOException {
+      return fill() ? frame[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+      if (length == 0) {
+        return 0;
+      }
+
+      if (!fill()) {
+        return -1;
+      }
+
+      final int count = Math.min(length, frame.length - position);
+      System.arraycopy(frame, position, buffer, offset, count);
+      position += count;
+
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return frame.length - position;
+    }
+
+    // Make sure that there is something left to read in the current frame,
+    // reading the next frame if needed. Returns false once the other side has
+    // closed the socket.
+    private boolean fill() throws IOException {
+
+      while (position >= frame.length) {
+
+        // The other side will not send anything until it has seen what we
+        // have written so far.
+        out.flush();
+
+        final byte[] next = Frames.read(socketIn);
+
+        if (next == null) {
+          return false;
+        }
+
+        frame = next;
+        position = 0;
+      }
+
+      return true;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import codeu.chat.util.BufferSerializer;
+
+// FRAMES
+//
+// A frame is a length-prefixed block of bytes. The length is written as a
+// four byte big-endian integer (the same layout as Serializers.INTEGER) and
+// is followed by exactly that many bytes. As the first thing every request
+// and response writes is its NetworkCode, the first four bytes of a frame's
+// body are always its type.
+//
+// Framing lets a reader know that it has a full request before it starts to
+// decode it, which is what allows non-blocking sockets to be used.
+public final class Frames {
+
+  public static final int HEADER_SIZE = 4;
+
+  // Limit how big a single frame can be so that a bad (or hostile) length
+  // cannot make the reader allocate an unbounded amount of memory.
+  public static final int MAX_SIZE = 16 * 1024 * 1024;
+
+  private Frames() { }
+
+  public static int checkSize(int size) throws IOException {
+    if (size < 0 || size > MAX_SIZE) {
+      throw new IOException(String.format("Bad frame size %d", size));
+    }
+    return size;
+  }
+
+  public static int readHeader(byte[] header, int offset) {
+    return ((header[offset] & 0xFF) << 24) |
+           ((header[offset + 1] & 0xFF) << 16) |
+           ((header[offset + 2] & 0xFF) << 8) |
+           (header[offset + 3] & 0xFF);
+  }
+
+  public static void writeHeader(byte[] header, int offset, int size) {
+    header[offset] = (byte) (size >>> 24);
+    header[offset + 1] = (byte) (size >>> 16);
+    header[offset + 2] = (byte) (size >>> 8);
+    header[offset + 3] = (byte) size;
+  }
+
+  // READ
+  //
+  // Read the next full frame from the stream. If the stream ends cleanly
+  // before a new frame starts, null is returned. If it ends part way through
+  // a frame an exception is thrown.
+  public static byte[] read(InputStream in) throws IOException {
+
+    final byte[] header = new byte[HEADER_SIZE];
+
+    if (!readFully(in, header, true)) {
+      return null;
+    }
+
+    final byte[] body = new byte[checkSize(readHeader(header, 0))];
+    readFully(in, body, false);
+
+    return body;
+  }
+
+  // WRITE
+  //
+  // Write a frame to the stream. The header and body are written with one call
+  // so that they will leave in the same packet when possible.
+  public static void write(OutputStream out, byte[] body, int offset, int length) throws IOException {
+
+    checkSize(length);
+
+    final byte[] frame = new byte[HEADER_SIZE + length];
+    writeHeader(frame, 0, length);
+    System.arraycopy(body, offset, frame, HEADER_SIZE, length);
+
+    out.write(frame);
+  }
+
+  // ENCODE
+  //
+  // Encode the value as a whole frame, header included, straight into one
+  // buffer. The buffer is flipped so that it can be handed to a channel as is.
+  // "direct" asks for a direct buffer, which a channel can write without first
+  // copying it.
+  public static <T> ByteBuffer encode(BufferSerializer<T> serializer, T value, boolean direct)
+      throws IOException {
+
+    final int size = checkSize(serializer.size(value));
+    final ByteBuffer frame = direct ?
+        ByteBuffer.allocateDirect(HEADER_SIZE + size) :
+        ByteBuffer.allocate(HEADER_SIZE + size);
+
+    frame.putInt(size);
+    serializer.write(frame, value);
+
+    if (frame.position() != HEADER_SIZE + size) {
+      throw new IOException(String.format(
+          "Serializer wrote %d bytes but said it would write %d",
+          frame.position() - HEADER_SIZE, size));
+    }
+
+    frame.flip();
+    return frame;
+  }
+
+  private static boolean readFully(InputStream in, byte[] buffer, boolean allowEnd) throws IOException {
+
+    int read = 0;
+
+    while (read < buffer.length) {
+
+      final int count = in.read(buffer, read, buffer.length - read);
+
+      if (count < 0) {
+        if (read == 0 && allowEnd) {
+          return false;
+        }
+        throw new EOFException("Stream ended part way through a frame");
+      }
+
+      read += count;
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,329 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import codeu.chat.util.Logger;
+
+// POOLED CONNECTION SOURCE
+//
+// Wraps another connection source and keeps the connections it makes open
+// after they are closed so that the next call to "connect" can reuse one
+// instead of paying to set up a new socket. This only helps if the other side
+// keeps its sockets open between requests (as ServerConnectionSource and
+// SelectorConnectionSource do).
+//
+// At most "maxTotal" connections are open at once. A call to "connect" when
+// they are all in use waits for one to be returned. At most "maxIdle" are kept
+// while not in use, anything returned beyond that is closed.
+//
+// Before an idle connection is given out it is checked to still be usable. A
+// connection that had an error while in use is never returned to the pool.
+public final class PooledConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(PooledConnectionSource.class);
+
+  public static final int DEFAULT_MAX_IDLE = 4;
+  public static final int DEFAULT_MAX_TOTAL = 32;
+
+  // Connections that have been idle for longer than this are also checked for
+  // having been closed by the other side. This check can take a millisecond,
+  // so it is not done for connections that were just used.
+  private static final long PROBE_AFTER_MS = 1000;
+
+  private final ConnectionSource source;
+  private final int maxIdle;
+  private final int maxTotal;
+
+  // Guarded by "this". The most recently used connection is at the front.
+  private final Deque<Idle> idle = new ArrayDeque<>();
+  private int total = 0;
+  private boolean closed = false;
+
+  public PooledConnectionSource(ConnectionSource source) {
+    this(source, DEFAULT_MAX_IDLE, DEFAULT_MAX_TOTAL);
+  }
+
+  public PooledConnectionSource(ConnectionSource source, int maxIdle, int maxTotal) {
+    this.source = source;
+    this.maxIdle = maxIdle;
+    this.maxTotal = maxTotal;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    while (true) {
+
+      final Idle next;
+
+      synchronized (this) {
+
+        while (!closed && idle.isEmpty() && total >= maxTotal) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            throw new IOException("Interrupted while waiting for a connection");
+          }
+        }
+
+        if (closed) {
+          throw new IOException("Connection pool is closed");
+        }
+
+        if (idle.isEmpty()) {
+          total++;
+          break;
+        }
+
+        next = idle.removeFirst();
+      }
+
+      // Checking can block for a moment, so do it outside of the lock.
+      if (isUsable(next)) {
+        return new Pooled(next.connection);
+      }
+
+      discard(next.connection);
+    }
+
+    try {
+      return new Pooled(source.connect());
+    } catch (IOException | RuntimeException ex) {
+      synchronized (this) {
+        total--;
+        notify();
+      }
+      throw ex;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    final Idle[] closing;
+
+    synchronized (this) {
+      closed = true;
+      closing = idle.toArray(new Idle[idle.size()]);
+      idle.clear();
+      total -= closing.length;
+      notifyAll();
+    }
+
+    for (final Idle connection : closing) {
+      closeQuietly(connection.connection);
+    }
+
+    source.close();
+  }
+
+  private static boolean isUsable(Idle next) {
+
+    if (!(next.connection instanceof SocketConnection)) {
+      return true;
+    }
+
+    final boolean probe = System.currentTimeMillis() - next.since > PROBE_AFTER_MS;
+    return ((SocketConnection) next.connection).isUsable(probe);
+  }
+
+  private void release(Connection connection) {
+
+    synchronized (this) {
+      if (!closed && idle.size() < maxIdle) {
+        idle.addFirst(new Idle(connection));
+        notify();
+        return;
+      }
+    }
+
+    discard(connection);
+  }
+
+  private void discard(Connection connection) {
+
+    synchronized (this) {
+      total--;
+      notify();
+    }
+
+    closeQuietly(connection);
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.info("Failed to close pooled connection: %s", ex.getMessage());
+    }
+  }
+
+  private static final class Idle {
+
+    final Connection connection;
+    final long since = System.currentTimeMillis();
+
+    Idle(Connection connection) {
+      this.connection = connection;
+    }
+  }
+
+  // POOLED
+  //
+  // Hands out a pooled connection for one use. Watches for errors so that a
+  // connection left in an unknown state is not reused, and returns the
+  // connection to the pool on close.
+  private final class Pooled implements Connection {
+
+    private final Connection connection;
+
+    private boolean broken = false;
+    private boolean returned = false;
+
+    // A request that was written but whose response was never read would
+    // leave the response to be read by the next user.
+    private boolean wrote = false;
+    private boolean read = false;
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    public Pooled(Connection connection) throws IOException {
+
+      this.connection = connection;
+
+      this.in = new FilterInputStream(connection.in()) {
+
+        @Override
+        public int read() throws IOException {
+          read = true;
+          try {
+            return ended(super.read());
+          } catch (IOException ex) {
+            broken = true;
+            throw ex;
+          }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+          read = true;
+          try {
+            return ended(super.read(buffer, offset, length));
+          } catch (IOException ex) {
+            broken = true;
+            throw ex;
+          }
+        }
+
+        // The other side closed the connection.
+        private int ended(int count) {
+          broken |= count < 0;
+          return count;
+        }
+
+        @Override
+        public void close() {
+          // The stream belongs to the pooled connection.
+        }
+      };
+
+      this.out = new FilterOutputStream(connection.out()) {
+
+        @Override
+        public void write(int b) throws IOException {
+          wrote = true;
+          try {
+            super.write(b);
+          } catch (IOException ex) {
+            broken = true;
+            throw ex;
+          }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          wrote = true;
+          try {
+            // FilterOutputStream would write one byte at a time.
+            out.write(bytes, offset, length);
+          } catch (IOException ex) {
+            broken = true;
+            throw ex;
+          }
+        }
+
+        @Override
+        public void flush() throws IOException {
+          try {
+            super.flush();
+          } catch (IOException ex) {
+            broken = true;
+            throw ex;
+          }
+        }
+
+        @Override
+        public void close() {
+          // The stream belongs to the pooled connection.
+        }
+      };
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      if (returned) {
+        return;
+      }
+
+      returned = true;
+
+      // Anything still buffered must go out now, before someone else starts
+      // writing their request.
+      if (!broken) {
+        try {
+          connection.out().flush();
+        } catch (IOException ex) {
+          broken = true;
+        }
+      }
+
+      if (broken || (wrote && !read)) {
+        discard(connection);
+      } else {
+        release(connection);
+      }
+    }
+  }
+}
@@ -0,0 +1,458 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.util.Logger;
+
+// SELECTOR CONNECTION SOURCE
+//
+// Implements the ConnectionSource interface for servers using non-blocking
+// sockets. A small number of selector threads accept sockets and read from
+// all of them. Each time a full frame (see Frames) has arrived, it is wrapped
+// in a connection and handed out by "connect". Whatever is written to that
+// connection is sent back as a frame on the same socket when the connection
+// is flushed or closed. Closing the connection does not close the socket, so
+// a client can send many frames over one socket.
+//
+// Responses are sent as soon as they are closed, so if a client sends more
+// than one frame before reading, the responses may come back in a different
+// order. Clients that do this (see client.Session) tag their requests so that
+// they can match the responses.
+public final class SelectorConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(SelectorConnectionSource.class);
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final ServerSocketChannel serverChannel;
+  private final Loop[] loops;
+
+  private final BlockingQueue<Connection> ready = new LinkedBlockingQueue<>();
+
+  private volatile boolean running = true;
+
+  // Only used by the thread accepting sockets.
+  private int nextLoop = 0;
+
+  private SelectorConnectionSource(ServerSocketChannel serverChannel, int loopCount) throws IOException {
+
+    this.serverChannel = serverChannel;
+    this.loops = new Loop[Math.max(1, loopCount)];
+
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new Loop(i);
+    }
+
+    // The first loop is also responsible for accepting new sockets.
+    serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+
+    for (final Loop loop : loops) {
+      loop.thread.start();
+    }
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    try {
+      return ready.take();
+    } catch (InterruptedException ex) {
+      throw new InterruptedIOException("Interrupted while waiting for a frame");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    running = false;
+
+    for (final Loop loop : loops) {
+      loop.selector.wakeup();
+    }
+
+    serverChannel.close();
+  }
+
+  public static ConnectionSource forPort(int port, int loops) throws IOException {
+
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress(port));
+    channel.configureBlocking(false);
+
+    return new SelectorConnectionSource(channel, loops);
+  }
+
+  // LOOP
+  //
+  // A single selector thread. Each socket belongs to exactly one loop for
+  // its whole life and only that loop reads from or writes to it.
+  private final class Loop implements Runnable {
+
+    private final Selector selector;
+    private final Thread thread;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    // Work handed to this loop by other threads. The loop picks these up the
+    // next time it wakes.
+    private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Peer> writable = new ConcurrentLinkedQueue<>();
+
+    public Loop(int index) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, "selector-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    public void add(SocketChannel channel) {
+      added.add(channel);
+      selector.wakeup();
+    }
+
+    public void wantWrite(Peer peer) {
+      writable.add(peer);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+
+      while (running) {
+
+        try {
+          selector.select();
+        } catch (IOException ex) {
+          LOG.error(ex, "Selector failed.");
+          break;
+        }
+
+        for (SocketChannel channel = added.poll(); channel != null; channel = added.poll()) {
+          register(channel);
+        }
+
+        for (Peer peer = writable.poll(); peer != null; peer = writable.poll()) {
+          if (peer.key.isValid()) {
+            peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_WRITE);
+          }
+        }
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+
+          final SelectionKey key = keys.next();
+          keys.remove();
+
+          try {
+            if (key.isValid() && key.isAcceptable()) {
+              onAccept();
+            }
+            if (key.isValid() && key.isReadable()) {
+              onRead((Peer) key.attachment());
+            }
+            if (key.isValid() && key.isWritable()) {
+              onWrite((Peer) key.attachment());
+            }
+          } catch (IOException ex) {
+            LOG.warning("Closing socket after I/O error (%s)", ex.toString());
+            if (key.attachment() != null) {
+              ((Peer) key.attachment()).close();
+            }
+          }
+        }
+      }
+
+      for (final SelectionKey key : selector.keys()) {
+        if (key.attachment() != null) {
+          ((Peer) key.attachment()).close();
+        }
+      }
+
+      try {
+        selector.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close selector.");
+      }
+    }
+
+    private void register(SocketChannel channel) {
+      try {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        final Peer peer = new Peer(this, channel);
+        peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to register socket.");
+        try {
+          channel.close();
+        } catch (IOException closeEx) {
+          LOG.error(closeEx, "Failed to close socket.");
+        }
+      }
+    }
+
+    private void onAccept() throws IOException {
+      for (SocketChannel channel = serverChannel.accept();
+           channel != null;
+           channel = serverChannel.accept()) {
+
+        final Loop owner = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+
+        if (owner == this) {
+          register(channel);
+        } else {
+          owner.add(channel);
+        }
+      }
+    }
+
+    private void onRead(Peer peer) throws IOException {
+
+      readBuffer.clear();
+
+      if (peer.channel.read(readBuffer) < 0) {
+        peer.close();
+        return;
+      }
+
+      readBuffer.flip();
+      peer.consume(readBuffer);
+    }
+
+    private void onWrite(Peer peer) throws IOException {
+      if (peer.flushOutput() && peer.key.isValid()) {
+        peer.key.interestOps(peer.key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+  // PEER
+  //
+  // The state for one socket. Incoming bytes are collected into frames and
+  // outgoing frames are queued until the socket can take them.
+  private final class Peer {
+
+    private final Loop loop;
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    // Only touched by the loop thread.
+    private final byte[] header = new byte[Frames.HEADER_SIZE];
+    private int headerRead = 0;
+    private byte[] body = null;
+    private int bodyRead = 0;
+
+    // Touched by the loop thread and by whichever threads are writing replies,
+    // guarded by "this".
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+    private boolean closeWhenFlushed = false;
+    private boolean closed = false;
+
+    public Peer(Loop loop, SocketChannel channel) {
+      this.loop = loop;
+      this.channel = channel;
+    }
+
+    public void consume(ByteBuffer bytes) throws IOException {
+
+      while (bytes.hasRemaining()) {
+
+        if (body == null) {
+
+          final int count = Math.min(bytes.remaining(), header.length - headerRead);
+          bytes.get(header, headerRead, count);
+          headerRead += count;
+
+          if (headerRead == header.length) {
+            body = new byte[Frames.checkSize(Frames.readHeader(header, 0))];
+            bodyRead = 0;
+            headerRead = 0;
+          }
+        }
+
+        if (body != null) {
+
+          final int count = Math.min(bytes.remaining(), body.length - bodyRead);
+          bytes.get(body, bodyRead, count);
+          bodyRead += count;
+
+          if (bodyRead == body.length) {
+            ready.add(new FrameConnection(body, this));
+            body = null;
+          }
+        }
+      }
+    }
+
+    // Queue a frame (header included) for writing. Called by whichever thread
+    // is writing the reply. The buffer is written as is, so a frame made with
+    // Frames.encode is never copied. A null frame means that the socket should
+    // be closed once all queued frames have been sent. Returns false if the
+    // socket has already been closed.
+    public boolean send(ByteBuffer frame) {
+
+      synchronized (this) {
+
+        if (closed) {
+          return false;
+        }
+
+        if (frame == null) {
+          closeWhenFlushed = true;
+        } else {
+          output.add(frame);
+        }
+      }
+
+      loop.wantWrite(this);
+
+      return true;
+    }
+
+    // Write as much of the queued output as the socket will take. Returns true
+    // when everything has been written.
+    public boolean flushOutput() throws IOException {
+
+      final boolean close;
+
+      synchronized (this) {
+
+        while (!output.isEmpty()) {
+          final ByteBuffer next = output.peek();
+          channel.write(next);
+          if (next.hasRemaining()) {
+            return false;
+          }
+          output.remove();
+        }
+
+        close = closeWhenFlushed;
+      }
+
+      if (close) {
+        close();
+      }
+
+      return true;
+    }
+
+    public void close() {
+
+      synchronized (this) {
+        closed = true;
+        output.clear();
+      }
+
+      if (key != null) {
+        key.cancel();
+      }
+
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close socket.");
+      }
+    }
+  }
+
+  private static final class FrameConnection implements Connection {
+
+    private final InputStream in;
+    private final ReplyStream out;
+
+    public FrameConnection(byte[] frame, Peer peer) {
+      this.in = new ByteArrayInputStream(frame);
+      this.out = new ReplyStream(peer);
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  // REPLY STREAM
+  //
+  // Everything written between flushes is sent as one frame. If nothing at
+  // all was written before the stream is closed, the socket is closed like
+  // the blocking server would so that the client does not wait forever.
+  private static final class ReplyStream extends ByteArrayOutputStream {
+
+    private final Peer peer;
+    private boolean closed = false;
+    private boolean empty = true;
+
+    public ReplyStream(Peer peer) {
+      this.peer = peer;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      if (!closed && count > 0) {
+        final byte[] frame = new byte[Frames.HEADER_SIZE + Frames.checkSize(count)];
+        Frames.writeHeader(frame, 0, count);
+        System.arraycopy(buf, 0, frame, Frames.HEADER_SIZE, count);
+        reset();
+        empty = false;
+
+        // Long-lived replies (such as subscriptions) need to know when the
+        // client has gone away.
+        if (!peer.send(ByteBuffer.wrap(frame))) {
+          throw new IOException("Connection closed");
+        }
+      }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (!closed) {
+        flush();
+        closed = true;
+        if (empty) {
+          peer.send(null);
+        }
+      }
+    }
+  }
+}
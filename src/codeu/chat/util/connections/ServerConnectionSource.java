@@ -19,23 +19,80 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.ThreadPerTaskExecutor;
 
 // SERVER CONNECTION SOURCE
 //
 // Implements the ConnectionSource interface for servers who need to host
 // one of their ports so that clients can connect to it. Calls to "connect"
 // will block until a connection is established.
+//
+// When "framed" is set, every connection expects its requests as frames and
+// sends each flushed response as a frame (see Frames). Clients must then use
+// a framed ClientConnectionSource.
+//
+// Sockets are kept open between requests so that clients can reuse them (see
+// PooledConnectionSource). Each connection given out by "connect" is for one
+// request. Once it is closed, the socket waits for the client's next request
+// and is given out again when it arrives. Closing a connection without
+// writing anything closes the socket, as the client would otherwise wait
+// forever for a response.
 public final class ServerConnectionSource implements ConnectionSource {
 
+  private final static Logger.Log LOG = Logger.newLog(ServerConnectionSource.class);
+
+  // Put on the ready queue once the server socket has been closed.
+  private static final Connection CLOSED = new Request(null);
+
   private final ServerSocket serverSocket;
+  private final boolean framed;
+
+  private final BlockingQueue<Connection> ready = new LinkedBlockingQueue<>();
+
+  // Each open socket has a thread waiting on it, as a blocking socket can not
+  // be watched any other way.
+  private final Executor sockets = new ThreadPerTaskExecutor("server-socket");
+
+  private ServerConnectionSource(ServerSocket serverSocket, boolean framed) {
 
-  private ServerConnectionSource(ServerSocket serverSocket) {
     this.serverSocket = serverSocket;
+    this.framed = framed;
+
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "server-accept");
+
+    acceptor.setDaemon(true);
+    acceptor.start();
   }
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(serverSocket.accept());
+
+    final Connection next;
+
+    try {
+      next = ready.take();
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted while waiting for a connection");
+    }
+
+    if (next == CLOSED) {
+      // Leave it there for anyone else who is waiting.
+      ready.add(CLOSED);
+      throw new IOException("Server socket is closed");
+    }
+
+    return next;
   }
 
   @Override
@@ -43,28 +100,134 @@ public final class ServerConnectionSource implements ConnectionSource {
     serverSocket.close();
   }
 
-  private static Connection fromSocket(final Socket socket) throws IOException {
+  private void accept() {
+
+    try {
+      while (true) {
+
+        final Socket socket = serverSocket.accept();
+        final SocketConnection connection = framed ?
+            new FramedConnection(socket) :
+            new StreamConnection(socket);
+
+        sockets.execute(new Runnable() {
+          @Override
+          public void run() {
+            serve(connection);
+          }
+        });
+      }
+    } catch (IOException ex) {
+      if (!serverSocket.isClosed()) {
+        LOG.error(ex, "Failed to accept connection.");
+      }
+    }
+
+    ready.add(CLOSED);
+  }
+
+  // SERVE
+  //
+  // Give out one request at a time from the socket until the client closes it
+  // or a request leaves it unusable.
+  private void serve(SocketConnection connection) {
 
-    return new Connection() {
+    try {
+      while (connection.awaitInput()) {
+
+        final Request request = new Request(connection);
+        ready.add(request);
+
+        if (!request.awaitReuse()) {
+          return;
+        }
+      }
+    } catch (Exception ex) {
+      LOG.info("Connection lost: %s", ex.getMessage());
+    }
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close connection.");
+    }
+  }
+
+  public static ConnectionSource forPort(int port) throws IOException {
+    return forPort(port, false);
+  }
+
+  public static ConnectionSource forPort(int port, boolean framed) throws IOException {
+    return new ServerConnectionSource(new ServerSocket(port), framed);
+  }
+
+  // REQUEST
+  //
+  // The part of a socket's life that belongs to one request.
+  private static final class Request implements Connection {
+
+    private final SocketConnection connection;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private volatile boolean written = false;
+    private volatile boolean reuse = false;
+
+    private final OutputStream out = new OutputStream() {
 
       @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
+      public void write(int b) throws IOException {
+        written = true;
+        connection.out().write(b);
       }
 
       @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        written = true;
+        connection.out().write(bytes, offset, length);
       }
 
       @Override
-      public void close() throws IOException {
-        socket.close();
+      public void flush() throws IOException {
+        connection.out().flush();
       }
     };
-  }
 
-  public static ConnectionSource forPort(int port) throws IOException {
-    return new ServerConnectionSource(new ServerSocket(port));
+    public Request(SocketConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public InputStream in() throws IOException {
+      return connection.in();
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+
+      if (closed.getCount() == 0) {
+        return;
+      }
+
+      try {
+        if (written) {
+          connection.out().flush();
+          reuse = true;
+        }
+      } finally {
+        closed.countDown();
+      }
+    }
+
+    // Wait for the request to be closed. Returns true if the socket can be used
+    // for another request.
+    public boolean awaitReuse() throws InterruptedException {
+      closed.await();
+      return reuse;
+    }
   }
 }
@@ -0,0 +1,40 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+
+// SOCKET CONNECTION
+//
+// A connection that owns a socket and so can carry more than one request
+// before it is closed. These are the calls that the connection sources need
+// to reuse one.
+interface SocketConnection extends Connection {
+
+  // AWAIT INPUT
+  //
+  // Block until the other side has sent something, without taking it off the
+  // connection. Returns false if the other side closed the connection instead.
+  boolean awaitInput() throws IOException;
+
+  // IS USABLE
+  //
+  // Whether another request can be sent on this connection. It is not usable if
+  // it has been closed or if there is something left to read from the last
+  // request. With "probe" set, the socket is also checked for having been
+  // closed by the other side, which can take up to a millisecond.
+  boolean isUsable(boolean probe);
+
+}
@@ -0,0 +1,151 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+// STREAM CONNECTION
+//
+// A connection over a socket that sends raw bytes. Both directions are
+// buffered so that the many small reads and writes made by the serializers do
+// not each become a system call. As with FramedConnection, reading from "in"
+// flushes any pending output first and closing the connection flushes before
+// the socket is closed, so callers only need to flush when they want the
+// other side to see what was written while they keep writing.
+final class StreamConnection implements SocketConnection {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final Socket socket;
+
+  private final OutputStream out;
+  private final InputStream in;
+
+  public StreamConnection(Socket socket) throws IOException {
+
+    this.socket = socket;
+
+    // Output is already held until it is flushed, so Nagle's algorithm would
+    // only delay it further.
+    this.socket.setTcpNoDelay(true);
+
+    this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE) {
+
+      @Override
+      public int read() throws IOException {
+        flushIfEmpty();
+        return super.read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        flushIfEmpty();
+        return super.read(buffer, offset, length);
+      }
+
+      // Only flush when the next read would have to go to the socket. The other
+      // side will not send anything until it has seen what we have written.
+      private void flushIfEmpty() throws IOException {
+        if (pos >= count) {
+          out.flush();
+        }
+      }
+    };
+  }
+
+  @Override
+  public InputStream in() {
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public boolean awaitInput() throws IOException {
+
+    in.mark(1);
+
+    if (in.read() < 0) {
+      return false;
+    }
+
+    in.reset();
+    return true;
+  }
+
+  @Override
+  public boolean isUsable(boolean probe) {
+
+    try {
+
+      if (socket.isClosed() || in.available() > 0) {
+        return false;
+      }
+
+      if (probe) {
+        return isOpen(socket, in);
+      }
+
+      return true;
+
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  // IS OPEN
+  //
+  // Check whether the other side has closed the socket. A blocking socket will
+  // only say so when read from, so read with a very short timeout. Timing out
+  // means the socket is open and idle. Anything else (the end of the stream or
+  // data that no one asked for) means it should not be used. "in" must be the
+  // buffered stream over the socket so that the read can be undone.
+  static boolean isOpen(Socket socket, InputStream in) throws IOException {
+
+    final int timeout = socket.getSoTimeout();
+    socket.setSoTimeout(1);
+
+    try {
+      in.mark(1);
+      if (in.read() >= 0) {
+        in.reset();
+      }
+      return false;
+    } catch (SocketTimeoutException ex) {
+      return true;
+    } finally {
+      socket.setSoTimeout(timeout);
+    }
+  }
+}
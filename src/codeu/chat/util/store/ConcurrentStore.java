@@ -0,0 +1,201 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A Store that can be read while it is being written to. Keys are kept in a
+// skip list, and each key has its own chain of values in the order they were
+// inserted. Reading never takes a lock, so readers never hold up a writer (or
+// each other). Writers only wait on each other when they insert under the
+// same key.
+//
+// Iterators never fail because of a concurrent insert. Like the iterators of
+// the java.util.concurrent maps, they are "weakly consistent": they see every
+// value that was inserted before they were made and may or may not see values
+// inserted while they are in use.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  private final ConcurrentNavigableMap<KEY, Chain<VALUE>> index;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+  }
+
+  public void insert(KEY key, VALUE value) {
+
+    final Chain<VALUE> created = new Chain<>(value);
+    final Chain<VALUE> existing = index.putIfAbsent(key, created);
+
+    if (existing != null) {
+      existing.append(value);
+    }
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Chain<VALUE> chain = index.get(key);
+    return chain == null ? null : chain.head.value;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return values(index);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final Chain<VALUE> chain = index.get(key);
+    return chain == null ? Collections.<VALUE>emptyList() : chain;
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return values(index.tailMap(start, true));
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return values(index.headMap(end, true));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    // A skip list will not make a sub map that ends before it starts, but the
+    // other stores treat that as an empty range.
+    if (index.comparator().compare(start, end) > 0) {
+      return Collections.emptyList();
+    }
+    return values(index.subMap(start, true, end, true));
+  }
+
+  private static <KEY, VALUE> Iterable<VALUE> values(final ConcurrentNavigableMap<KEY, Chain<VALUE>> map) {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        return new ValueIterator<>(map.values().iterator());
+      }
+    };
+  }
+
+  // CHAIN
+  //
+  // The values under one key. Links are only ever added at the tail and every
+  // "next" is volatile, so a reader that follows the links sees each value
+  // fully made.
+  private static final class Chain<VALUE> implements Iterable<VALUE> {
+
+    final Link<VALUE> head;
+    private Link<VALUE> tail;  // Guarded by "this".
+
+    Chain(VALUE value) {
+      this.head = new Link<>(value);
+      this.tail = head;
+    }
+
+    synchronized void append(VALUE value) {
+      final Link<VALUE> link = new Link<>(value);
+      tail.next = link;
+      tail = link;
+    }
+
+    @Override
+    public Iterator<VALUE> iterator() {
+      return new LinkValues<>(head);
+    }
+  }
+
+  private static final class Link<VALUE> {
+
+    final VALUE value;
+    volatile Link<VALUE> next;
+
+    Link(VALUE value) {
+      this.value = value;
+    }
+  }
+
+  private static final class LinkValues<VALUE> implements Iterator<VALUE> {
+
+    private Link<VALUE> current;
+
+    LinkValues(Link<VALUE> first) {
+      this.current = first;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return current != null;
+    }
+
+    @Override
+    public VALUE next() {
+      if (current == null) {
+        throw new NoSuchElementException();
+      }
+      final VALUE value = current.value;
+      current = current.next;
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  // VALUE ITERATOR
+  //
+  // Walks each chain in key order.
+  private static final class ValueIterator<VALUE> implements Iterator<VALUE> {
+
+    private final Iterator<Chain<VALUE>> chains;
+    private Link<VALUE> current;
+
+    ValueIterator(Iterator<Chain<VALUE>> chains) {
+      this.chains = chains;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (current == null && chains.hasNext()) {
+        current = chains.next().head;
+      }
+      return current != null;
+    }
+
+    @Override
+    public VALUE next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final VALUE value = current.value;
+      current = current.next;
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -32,7 +32,8 @@ final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
   @Override
   public boolean hasNext() {
-    return current != null && comparator.compare(current.key, last.key) <= 0;
+    // "last" is null when nothing comes at or before the end of the range.
+    return current != null && last != null && comparator.compare(current.key, last.key) <= 0;
   }
 
   @Override
@@ -0,0 +1,135 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// POSTING LIST
+//
+// The positions of the values (messages, titles, ...) that have one term, for
+// indexes that give each value a position as it is added: 0 for the first,
+// 1 for the next and so on. As values are only ever added, the list is
+// already in order and adding to it is an append.
+//
+// Like Store, this is not thread safe. Readers can share it as long as no one
+// is adding.
+public final class PostingList {
+
+  private static final Comparator<PostingList> SHORTEST_FIRST = new Comparator<PostingList>() {
+    @Override
+    public int compare(PostingList a, PostingList b) {
+      return Integer.compare(a.size, b.size);
+    }
+  };
+
+  private int[] positions = new int[4];
+  private int size = 0;
+
+  // ADD
+  //
+  // Add a position after every position already in the list. A term found
+  // twice in one value is only listed once. Returns how many bytes the list
+  // grew by.
+  public int add(int position) {
+
+    if (size > 0 && positions[size - 1] == position) {
+      return 0;
+    }
+
+    int grew = 0;
+
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, 2 * size);
+      grew = 4 * size;
+    }
+
+    positions[size++] = position;
+    return grew;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // INTERSECTION
+  //
+  // Walks the positions that are in every one of the lists, from the last
+  // back to the first. The shortest list is walked and each of its positions
+  // is looked up in the others, so the cost follows the rarest term. As every
+  // later candidate comes before the last one, each lookup only searches the
+  // part of a list before where the last one stopped.
+  public static final class Intersection {
+
+    private final PostingList[] lists;
+    private final int[] ends;
+    private int next;
+
+    public Intersection(PostingList... lists) {
+
+      this.lists = lists.clone();
+      Arrays.sort(this.lists, SHORTEST_FIRST);
+
+      this.ends = new int[lists.length];
+      for (int i = 0; i < lists.length; i++) {
+        ends[i] = this.lists[i].size;
+      }
+
+      this.next = lists.length == 0 ? -1 : ends[0] - 1;
+    }
+
+    // The most any walk can return, which is the length of the shortest list.
+    public int bound() {
+      return lists.length == 0 ? 0 : lists[0].size;
+    }
+
+    // PREVIOUS
+    //
+    // The next position (going back) that is in every list, or -1 once there
+    // are none left.
+    public int previous() {
+
+      while (next >= 0) {
+
+        final int position = lists[0].positions[next--];
+
+        if (inOthers(position)) {
+          return position;
+        }
+      }
+
+      return -1;
+    }
+
+    private boolean inOthers(int position) {
+
+      for (int i = 1; i < lists.length; i++) {
+
+        final int at = Arrays.binarySearch(lists[i].positions, 0, ends[i], position);
+
+        if (at < 0) {
+          // Nothing at or after the insertion point can match a later
+          // candidate.
+          ends[i] = -at - 1;
+          return false;
+        }
+
+        ends[i] = at;
+      }
+
+      return true;
+    }
+  }
+}
@@ -26,7 +26,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
   // the "next" value is used more than the "this" or "current" reference.
   private final StoreLink<KEY, VALUE> rootLink = new StoreLink<>(null, null, null);
 
-  private final NavigableMap<KEY, StoreLink<KEY, VALUE>> index;
+  private final NavigableMap<KEY, Bucket<KEY, VALUE>> index;
 
   private final Comparator<KEY> comparator;
 
@@ -37,40 +37,27 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
 
   public void insert(KEY key, VALUE value) {
 
-    final StoreLink<KEY, VALUE> closestLink = floor(key);
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> closest = index.floorEntry(key);
 
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
-    }
+    // Values with equal keys are kept in insert order, so the new value goes
+    // right after the last link of the closest key at or before it. The bucket
+    // knows that link, so there is no need to walk over the values already
+    // stored under the key.
+    final StoreLink<KEY, VALUE> previous = closest == null ? rootLink : closest.getValue().last;
+    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, previous.next);
+    previous.next = newLink;
 
-    // "current.next" may be null, but "current" can never be null. So it
-    // should always be safe to call to current.
-    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
-    current.next = newLink;
-
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
+    if (closest != null && comparator.compare(closest.getKey(), key) == 0) {
+      closest.getValue().last = newLink;
+    } else {
+      index.put(key, new Bucket<>(newLink));
     }
   }
 
   @Override
   public VALUE first(KEY key) {
-    final StoreLink<KEY, VALUE> link = index.get(key);
-    return link == null ? null : link.value;
+    final Bucket<KEY, VALUE> bucket = index.get(key);
+    return bucket == null ? null : bucket.first.value;
   }
 
   @Override
@@ -99,22 +86,37 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
   }
 
   private StoreLink<KEY, VALUE> first() {
-    return extract(index.firstEntry());
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> entry = index.firstEntry();
+    return entry == null ? null : entry.getValue().first;
   }
 
   private StoreLink<KEY, VALUE> last() {
-    return extract(index.lastEntry());
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> entry = index.lastEntry();
+    return entry == null ? null : entry.getValue().last;
   }
 
   private StoreLink<KEY, VALUE> ceiling(KEY key) {
-    return extract(index.ceilingEntry(key));
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> entry = index.ceilingEntry(key);
+    return entry == null ? null : entry.getValue().first;
   }
 
   private StoreLink<KEY, VALUE> floor(KEY key) {
-    return extract(index.floorEntry(key));
+    final Map.Entry<KEY, Bucket<KEY, VALUE>> entry = index.floorEntry(key);
+    return entry == null ? null : entry.getValue().last;
   }
 
-  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, StoreLink<KEY, VALUE>> entry) {
-    return entry == null ? null : entry.getValue();
+  // BUCKET
+  //
+  // The run of links that share one key. As the index has one entry per key,
+  // the bucket lets it find both ends of the run without walking it.
+  private static final class Bucket<KEY, VALUE> {
+
+    final StoreLink<KEY, VALUE> first;
+    StoreLink<KEY, VALUE> last;
+
+    Bucket(StoreLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
   }
 }
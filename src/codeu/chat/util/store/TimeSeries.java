@@ -0,0 +1,255 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import codeu.chat.util.Time;
+
+// TIME SERIES
+//
+// A store for values keyed by when they were made. As values are nearly
+// always added in time order, they are kept in two columns (a primitive
+// array of times in milliseconds and an array of values) that are only ever
+// appended to. Adding a value is a compare and an array write, and finding
+// the values in a time range is two binary searches.
+//
+// A value older than the newest one (such as a message from a relay bundle)
+// can not be appended without breaking the order. Those go to a Store on the
+// side instead, and reads merge the two. Values with equal times come out in
+// insert order, except that appended values come before late ones.
+//
+// Like Store, this is not thread safe. Readers can share it as long as no one
+// is inserting.
+public final class TimeSeries<VALUE> implements StoreAccessor<Time, VALUE> {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private static final Comparator<Time> TIME_COMPARE = new Comparator<Time>() {
+    @Override
+    public int compare(Time a, Time b) {
+      return a.compareTo(b);
+    }
+  };
+
+  private long[] times = new long[MIN_CAPACITY];
+  private Object[] values = new Object[MIN_CAPACITY];
+  private int size = 0;
+
+  // Made when the first out of order value arrives.
+  private Store<Time, Late<VALUE>> late;
+  private int lateSize = 0;
+
+  // About how much memory each late value takes: its link in the store, an
+  // index entry and the Late itself.
+  private static final int LATE_BYTES = 96;
+
+  public void insert(Time key, VALUE value) {
+
+    final long ms = key.inMs();
+
+    if (size > 0 && ms < times[size - 1]) {
+      if (late == null) {
+        late = new Store<>(TIME_COMPARE);
+      }
+      late.insert(key, new Late<>(ms, value));
+      lateSize++;
+      return;
+    }
+
+    if (size == times.length) {
+      times = Arrays.copyOf(times, 2 * size);
+      values = Arrays.copyOf(values, 2 * size);
+    }
+
+    times[size] = ms;
+    values[size] = value;
+    size++;
+  }
+
+  // BYTES
+  //
+  // About how much memory the series takes, not counting the values in it.
+  public long bytes() {
+    return 8L * times.length + 4L * values.length + (long) LATE_BYTES * lateSize;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public VALUE first(Time key) {
+
+    final int at = lowerBound(key.inMs());
+
+    if (at < size && times[at] == key.inMs()) {
+      return (VALUE) values[at];
+    }
+
+    final Late<VALUE> found = late == null ? null : late.first(key);
+    return found == null ? null : found.value;
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return new Slice(Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  @Override
+  public Iterable<VALUE> at(Time key) {
+    return range(key, key);
+  }
+
+  @Override
+  public Iterable<VALUE> after(Time start) {
+    return new Slice(start.inMs(), Long.MAX_VALUE);
+  }
+
+  @Override
+  public Iterable<VALUE> before(Time end) {
+    return new Slice(Long.MIN_VALUE, end.inMs());
+  }
+
+  @Override
+  public Iterable<VALUE> range(Time start, Time end) {
+    return new Slice(start.inMs(), end.inMs());
+  }
+
+  // The first position with a time at or after "ms".
+  private int lowerBound(long ms) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (times[middle] < ms) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // The first position with a time after "ms".
+  private int upperBound(long ms) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (times[middle] <= ms) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // SLICE
+  //
+  // The values with times from "start" to "end" (both included). The bounds
+  // are found each time it is iterated, so it sees values added since it was
+  // made, like the iterables from Store.
+  private final class Slice implements Iterable<VALUE> {
+
+    private final long start;
+    private final long end;
+
+    Slice(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public Iterator<VALUE> iterator() {
+
+      final int from = lowerBound(start);
+      final int to = Math.max(from, upperBound(end));
+
+      final Iterator<Late<VALUE>> others = late == null ?
+          Collections.<Late<VALUE>>emptyIterator() :
+          late.range(Time.fromMs(start), Time.fromMs(end)).iterator();
+
+      return new Merge(from, to, others);
+    }
+  }
+
+  // MERGE
+  //
+  // Walks a run of the columns and the matching late values together, taking
+  // whichever is older next.
+  private final class Merge implements Iterator<VALUE> {
+
+    private int at;
+    private final int to;
+    private final Iterator<Late<VALUE>> late;
+    private Late<VALUE> nextLate;
+
+    Merge(int from, int to, Iterator<Late<VALUE>> late) {
+      this.at = from;
+      this.to = to;
+      this.late = late;
+      advanceLate();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return at < to || nextLate != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public VALUE next() {
+
+      if (at < to && (nextLate == null || times[at] <= nextLate.ms)) {
+        return (VALUE) values[at++];
+      }
+
+      if (nextLate == null) {
+        throw new NoSuchElementException();
+      }
+
+      final VALUE value = nextLate.value;
+      advanceLate();
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void advanceLate() {
+      nextLate = late.hasNext() ? late.next() : null;
+    }
+  }
+
+  // LATE
+  //
+  // An out of order value along with its time, as iterating a Store only
+  // gives back values and the merge needs to know the time of each one.
+  private static final class Late<VALUE> {
+
+    final long ms;
+    final VALUE value;
+
+    Late(long ms, VALUE value) {
+      this.ms = ms;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// TRIGRAM INDEX
+//
+// An index for finding values by part of their text (such as a title or a
+// name). Every run of three characters in a value's text maps to the list of
+// values whose text has it. The values whose text contains a string must have
+// every trigram of that string, so only the values on all of those lists need
+// to be checked. The cost of a search then follows the number of values that
+// could match rather than the number of values.
+//
+// Text is indexed without case. The start of each text is marked so that
+// prefixes of two or more characters can be found through the index too.
+// Strings too short to have a trigram can not narrow the search and every
+// value is a candidate.
+//
+// Values are listed in the order they were inserted. Like Store, this is not
+// thread safe. Readers can share it as long as no one is inserting.
+public final class TrigramIndex<VALUE> {
+
+  // Put before each text so that the first characters make their own trigram.
+  private static final char START = '\u0000';
+
+  private final Map<Long, PostingList> grams = new HashMap<>();
+
+  private final List<VALUE> values = new ArrayList<>();
+  private final List<String> texts = new ArrayList<>();
+
+  // About how much memory a new trigram takes: its map entry, key and list.
+  private static final int GRAM_BYTES = 96;
+
+  private volatile long bytes = 0;
+
+  public void insert(String text, VALUE value) {
+
+    final int position = values.size();
+    final String lower = START + text.toLowerCase();
+
+    values.add(value);
+    texts.add(lower);
+
+    long added = 8 + 40 + 2 * lower.length();
+
+    for (int i = 0; i + 3 <= lower.length(); i++) {
+
+      final Long gram = gram(lower, i);
+
+      PostingList postings = grams.get(gram);
+
+      if (postings == null) {
+        postings = new PostingList();
+        grams.put(gram, postings);
+        added += GRAM_BYTES;
+      }
+
+      added += postings.add(position);
+    }
+
+    bytes += added;
+  }
+
+  // BYTES
+  //
+  // About how much memory the index takes, not counting the values in it. It
+  // can be read while someone is inserting.
+  public long bytes() {
+    return bytes;
+  }
+
+  public int size() {
+    return values.size();
+  }
+
+  public List<VALUE> all() {
+    return Collections.unmodifiableList(values);
+  }
+
+  // CONTAINING
+  //
+  // The values whose text contains "part", ignoring case.
+  public List<VALUE> containing(String part) {
+
+    final String lower = part.toLowerCase();
+    final List<VALUE> found = new ArrayList<>();
+
+    for (final int position : positions(lower)) {
+      if (texts.get(position).indexOf(lower, 1) >= 0) {
+        found.add(values.get(position));
+      }
+    }
+
+    return found;
+  }
+
+  // STARTING WITH
+  //
+  // The values whose text starts with "prefix", ignoring case.
+  public List<VALUE> startingWith(String prefix) {
+
+    final String lower = START + prefix.toLowerCase();
+    final List<VALUE> found = new ArrayList<>();
+
+    for (final int position : positions(lower)) {
+      if (texts.get(position).startsWith(lower)) {
+        found.add(values.get(position));
+      }
+    }
+
+    return found;
+  }
+
+  // CANDIDATES
+  //
+  // The values that could contain "part" (ignoring case). Every value that
+  // does is returned, but the caller must check each one as some may not.
+  public List<VALUE> candidates(String part) {
+
+    final List<VALUE> found = new ArrayList<>();
+
+    for (final int position : positions(part.toLowerCase())) {
+      found.add(values.get(position));
+    }
+
+    return found;
+  }
+
+  // The positions of the values whose text has every trigram in "lower".
+  private int[] positions(String lower) {
+
+    if (lower.length() < 3) {
+      final int[] every = new int[values.size()];
+      for (int i = 0; i < every.length; i++) {
+        every[i] = i;
+      }
+      return every;
+    }
+
+    final PostingList[] lists = new PostingList[lower.length() - 2];
+
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = grams.get(gram(lower, i));
+      if (lists[i] == null) {
+        return new int[0];
+      }
+    }
+
+    final PostingList.Intersection matches = new PostingList.Intersection(lists);
+
+    // The walk goes from the last position back, so the array is filled from
+    // its end.
+    final int[] found = new int[matches.bound()];
+    int start = found.length;
+
+    for (int position = matches.previous(); position >= 0; position = matches.previous()) {
+      found[--start] = position;
+    }
+
+    return Arrays.copyOfRange(found, start, found.length);
+  }
+
+  private static Long gram(String text, int at) {
+    return ((long) text.charAt(at) << 32) |
+           ((long) text.charAt(at + 1) << 16) |
+           (long) text.charAt(at + 2);
+  }
+}
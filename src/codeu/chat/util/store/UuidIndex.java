@@ -0,0 +1,172 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import codeu.chat.util.Uuid;
+
+// UUID INDEX
+//
+// A hash index from Uuid to value for stores that are only ever looked up by
+// an exact id, which is what the "by id" parts of the model do. Unlike Store,
+// finding a value does not walk a tree comparing chains: it is one hash probe
+// (Uuid hashes are worked out when the Uuid is made) and no allocation.
+//
+// The table uses open addressing with linear probing. Each slot's hash, chain
+// length and, for ids of one or two links (nearly all of them), the links
+// themselves are kept in primitive arrays. A probe can then accept or reject
+// a slot without touching the key object. Longer ids fall back to comparing
+// the Uuids.
+//
+// "all" lists values in the order they were inserted. As Uuids have no useful
+// order, this is not a StoreAccessor: there is no "after", "before" or
+// "range". Keys are expected to be unique. If a key is inserted twice, the
+// second insert is ignored.
+//
+// Like Store, this is not thread safe. Readers can share it as long as no one
+// is inserting.
+public final class UuidIndex<VALUE> {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] hashes;
+  private long[] packed;
+  private byte[] lengths;  // 0 for an empty slot, -1 (LONG) for "too long to pack"
+  private Uuid[] keys;
+  private Object[] values;
+
+  private int size = 0;
+  private final List<VALUE> ordered = new ArrayList<>();
+
+  public UuidIndex() {
+    allocate(MIN_CAPACITY);
+  }
+
+  public void insert(Uuid key, VALUE value) {
+
+    if (key == null) {
+      throw new IllegalArgumentException("Null Uuids can not be indexed");
+    }
+
+    if (find(key) >= 0) {
+      return;
+    }
+
+    ordered.add(value);
+
+    // Keep the table at most half full so that probes stay short.
+    if (2 * (size + 1) > hashes.length) {
+      resize(2 * hashes.length);
+    }
+
+    put(key, value);
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public VALUE first(Uuid key) {
+    final int slot = key == null ? -1 : find(key);
+    return slot < 0 ? null : (VALUE) values[slot];
+  }
+
+  public Iterable<VALUE> all() {
+    return Collections.unmodifiableList(ordered);
+  }
+
+  // Returns the slot holding the key, or -1.
+  private int find(Uuid key) {
+
+    final int hash = key.hashCode();
+    final int length = packedLength(key);
+    final long pack = pack(key);
+    final int mask = hashes.length - 1;
+
+    for (int slot = hash & mask; lengths[slot] != 0; slot = (slot + 1) & mask) {
+      if (hashes[slot] == hash && lengths[slot] == length) {
+        if (length == LONG ? Uuid.equals(keys[slot], key) : packed[slot] == pack) {
+          return slot;
+        }
+      }
+    }
+
+    return -1;
+  }
+
+  private void put(Uuid key, Object value) {
+
+    final int hash = key.hashCode();
+    final int mask = hashes.length - 1;
+
+    int slot = hash & mask;
+    while (lengths[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+
+    hashes[slot] = hash;
+    packed[slot] = pack(key);
+    lengths[slot] = (byte) packedLength(key);
+    keys[slot] = key;
+    values[slot] = value;
+  }
+
+  private void resize(int capacity) {
+
+    final Uuid[] oldKeys = keys;
+    final Object[] oldValues = values;
+
+    allocate(capacity);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    hashes = new int[capacity];
+    packed = new long[capacity];
+    lengths = new byte[capacity];
+    keys = new Uuid[capacity];
+    values = new Object[capacity];
+  }
+
+  // Ids with more than two links are marked with this length and compared as
+  // Uuids.
+  private static final int LONG = -1;
+
+  private static int packedLength(Uuid key) {
+    final int length = Uuid.length(key);
+    return length <= 2 ? length : LONG;
+  }
+
+  private static long pack(Uuid key) {
+    switch (Uuid.length(key)) {
+      case 1:
+        return key.link(0) & 0xFFFFFFFFL;
+      case 2:
+        return ((long) key.link(0) << 32) | (key.link(1) & 0xFFFFFFFFL);
+      default:
+        return 0;
+    }
+  }
+}
@@ -22,13 +22,33 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.client.SessionTest.class,
+             codeu.chat.common.ColumnarMessagesTest.class,
              codeu.chat.common.SecretTest.class,
              codeu.chat.relay.ServerTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.ConversationLogTest.class,
+             codeu.chat.server.EncodedCacheTest.class,
+             codeu.chat.server.PatternsTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.RequestQueueTest.class,
+             codeu.chat.server.SecondaryIndexTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.TextIndexTest.class,
+             codeu.chat.util.BufferSerializersTest.class,
+             codeu.chat.util.CompactTest.class,
+             codeu.chat.util.LinearPatternTest.class,
+             codeu.chat.util.SerializersTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.UuidTest.class,
-             codeu.chat.util.store.StoreTest.class
+             codeu.chat.util.connections.CompressionTest.class,
+             codeu.chat.util.connections.PooledConnectionSourceTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
+             codeu.chat.util.store.PostingListTest.class,
+             codeu.chat.util.store.StoreTest.class,
+             codeu.chat.util.store.TimeSeriesTest.class,
+             codeu.chat.util.store.TrigramIndexTest.class,
+             codeu.chat.util.store.UuidIndexTest.class
          );
       for (final Failure failure : result.getFailures()) {
          System.out.println(failure.toString());
@@ -0,0 +1,219 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.client;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SessionTest {
+
+  private TestServer server;
+  private Session session;
+
+  @After
+  public void doAfter() throws IOException {
+    if (session != null) {
+      session.close();
+    }
+    server.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testBusyIsSentAgain() throws Exception {
+
+    server = new TestServer(true);
+    server.respond(busy(10));
+    server.respond(users(3));
+
+    session = new Session("localhost", server.port(), false);
+
+    assertEquals(3, new View(session).getUsers(Collections.<Uuid>emptyList()).size());
+    assertEquals(2, server.requests.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testBusyOnlyAtStartOfResponse() throws Exception {
+
+    // After the type comes the number of users, 40, which is also the code
+    // for SERVER_BUSY.
+    assertEquals(40, NetworkCode.SERVER_BUSY);
+
+    server = new TestServer(true);
+    server.respond(users(40));
+
+    session = new Session("localhost", server.port(), false);
+
+    assertEquals(40, new View(session).getUsers(Collections.<Uuid>emptyList()).size());
+    assertEquals(1, server.requests.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testFallbackWithoutSessions() throws Exception {
+
+    // Without sessions the server closes the socket after every response, so
+    // calls made one right after another must each use a new one.
+    server = new TestServer(false);
+    session = new Session("localhost", server.port(), false);
+
+    final View view = new View(session);
+
+    for (int i = 0; i < 3; i++) {
+      server.respond(users(i + 1));
+      assertEquals(i + 1, view.getUsers(Collections.<Uuid>emptyList()).size());
+    }
+
+    assertEquals(3, server.requests.get());
+  }
+
+  private static byte[] busy(int retryAfterMs) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, NetworkCode.SERVER_BUSY);
+    Serializers.INTEGER.write(out, retryAfterMs);
+    return out.toByteArray();
+  }
+
+  private static byte[] users(int count) throws IOException {
+
+    final Collection<User> users = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      users.add(new User(new Uuid(i + 1), "user " + i, Time.fromMs(i)));
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+    Serializers.collection(User.SERIALIZER).write(out, users);
+    return out.toByteArray();
+  }
+
+  // TEST SERVER
+  //
+  // Speaks just enough of the protocol to answer each request with the next
+  // of the responses it was given. Without "sessions" it acts like a server
+  // from before sessions: it turns them down and closes the socket after
+  // every response.
+  private static final class TestServer {
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    private final boolean sessions;
+
+    private final ServerSocket socket = new ServerSocket(0);
+    private final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+
+    TestServer(boolean sessions) throws IOException {
+
+      this.sessions = sessions;
+
+      final Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              serve(socket.accept());
+            }
+          } catch (Exception ex) {
+            // Closed.
+          }
+        }
+      });
+
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return socket.getLocalPort();
+    }
+
+    void respond(byte[] response) {
+      responses.add(response);
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    private void serve(Socket client) throws Exception {
+
+      final InputStream in = new BufferedInputStream(client.getInputStream());
+      final OutputStream out = client.getOutputStream();
+
+      final int request = Serializers.INTEGER.read(in);
+
+      if (!sessions) {
+
+        if (request == NetworkCode.OPEN_SESSION_REQUEST) {
+          Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+        } else {
+          Serializers.collection(Uuid.SERIALIZER).read(in);
+          requests.incrementAndGet();
+          out.write(responses.take());
+        }
+
+        client.close();
+        return;
+      }
+
+      assertEquals(NetworkCode.OPEN_SESSION_REQUEST, request);
+      final int version = Serializers.INTEGER.read(in);
+
+      Serializers.INTEGER.write(out, NetworkCode.OPEN_SESSION_RESPONSE);
+      Serializers.INTEGER.write(out, version);
+      out.flush();
+
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(in);
+        final int id = Serializers.INTEGER.read(in);
+
+        if (type == NetworkCode.VERSIONED_SESSION_REQUEST) {
+          Serializers.INTEGER.read(in);
+        }
+
+        new DataInputStream(in).readFully(new byte[Serializers.INTEGER.read(in)]);
+        requests.incrementAndGet();
+
+        Serializers.INTEGER.write(out, NetworkCode.SESSION_RESPONSE);
+        Serializers.INTEGER.write(out, id);
+        Serializers.BYTES.write(out, responses.take());
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ColumnarMessagesTest {
+
+  private static final Uuid SERVER = new Uuid(1);
+
+  // A conversation of "count" messages linked to each other, written by three
+  // authors taking turns, one message every 2 seconds.
+  private static List<Message> conversation(int count) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(new Uuid(SERVER, 100 + i),
+                               i + 1 < count ? new Uuid(SERVER, 101 + i) : Uuid.NULL,
+                               i > 0 ? new Uuid(SERVER, 99 + i) : Uuid.NULL,
+                               Time.fromMs(1500000000000L + 2000 * i),
+                               new Uuid(SERVER, 10 + i % 3),
+                               "message " + i));
+    }
+
+    return messages;
+  }
+
+  @Test
+  public void testRun() throws IOException {
+    assertRoundTrip(conversation(50));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    assertRoundTrip(Collections.<Message>emptyList());
+  }
+
+  @Test
+  public void testBrokenRun() throws IOException {
+
+    // Every other message, in reverse, at uneven times.
+    final List<Message> all = conversation(20);
+    final List<Message> some = new ArrayList<>();
+
+    for (int i = all.size() - 1; i >= 0; i -= 2) {
+      final Message message = all.get(i);
+      some.add(new Message(message.id,
+                           message.next,
+                           message.previous,
+                           Time.fromMs(message.creation.inMs() - 37 * i * i),
+                           message.author,
+                           message.content));
+    }
+
+    assertRoundTrip(some);
+  }
+
+  @Test
+  public void testSmallerThanOtherEncodings() throws IOException {
+
+    final List<Message> messages = conversation(200);
+
+    final int original = size(Message.collectionSerializer(1), messages);
+    final int compact = size(Message.collectionSerializer(NetworkCode.COMPACT_VERSION), messages);
+    final int columnar = size(Message.collectionSerializer(NetworkCode.COLUMNAR_VERSION), messages);
+
+    assertTrue(String.format("%d vs %d", columnar, compact), columnar < compact);
+
+    // Without the content, which no encoding can shrink, each message should
+    // be several times smaller.
+    int content = 0;
+    for (final Message message : messages) {
+      content += message.content.length();
+    }
+
+    assertTrue(String.format("%d vs %d", columnar, original),
+               4 * (columnar - content) < original - content);
+  }
+
+  private static void assertRoundTrip(List<Message> messages) throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ColumnarMessages.SERIALIZER.write(out, messages);
+
+    final Collection<Message> read =
+        ColumnarMessages.SERIALIZER.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(messages.size(), read.size());
+
+    final Iterator<Message> actual = read.iterator();
+
+    for (final Message expected : messages) {
+      final Message next = actual.next();
+      assertEquals(expected.id, next.id);
+      assertEquals(expected.next, next.next);
+      assertEquals(expected.previous, next.previous);
+      assertEquals(expected.author, next.author);
+      assertEquals(expected.creation.inMs(), next.creation.inMs());
+      assertEquals(expected.content, next.content);
+    }
+  }
+
+  private static int size(Serializer<Collection<Message>> serializer,
+                          Collection<Message> messages) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, messages);
+    return out.size();
+  }
+}
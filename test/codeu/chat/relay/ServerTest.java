@@ -286,4 +286,48 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+
+    final Server relay = new Server(64, 64);
+
+    final Uuid team = new Uuid(3);
+    final byte[] secret = { 0x00, 0x01, 0x02 };
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread[] writers = new Thread[8];
+
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100; j++) {
+            relay.write(team,
+                        secret,
+                        relay.pack(new Uuid(4), "User", Time.now()),
+                        relay.pack(new Uuid(5), "Conversation", Time.now()),
+                        relay.pack(new Uuid(6), "Hello World", Time.now()));
+          }
+        }
+      };
+      writers[i].start();
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    // The ids start at 2 so after 800 writes the history should hold ids 738
+    // to 801 with no gaps.
+    final Collection<Relay.Bundle> read = relay.read(team, secret, new Uuid(737), 64);
+    assertTrue(read.size() == 64);
+
+    int expected = 738;
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.id(), new Uuid(expected)));
+      expected++;
+    }
+  }
 }
@@ -0,0 +1,128 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ConversationLogTest {
+
+  private ConversationLog log;
+
+  @Before
+  public void doBefore() {
+    log = new ConversationLog(Uuid.NULL);
+  }
+
+  @Test
+  public void testAppend() {
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, log.append(message(i, 10 * i)));
+    }
+
+    assertEquals(100, log.size());
+    assertEquals(new Uuid(42), log.get(42).id);
+  }
+
+  @Test
+  public void testFirstAtOrAfter() {
+
+    for (int i = 0; i < 100; i++) {
+      log.append(message(i, 10 * i));
+    }
+
+    assertEquals(0, log.firstAtOrAfter(Time.fromMs(0)));
+    assertEquals(5, log.firstAtOrAfter(Time.fromMs(50)));
+    assertEquals(6, log.firstAtOrAfter(Time.fromMs(51)));
+    assertEquals(100, log.firstAtOrAfter(Time.fromMs(991)));
+  }
+
+  @Test
+  public void testFirstAtOrAfterOutOfOrder() {
+
+    // A walk from the start would stop at the first message at or after the
+    // time, even if an older message comes later.
+    log.append(message(0, 10));
+    log.append(message(1, 30));
+    log.append(message(2, 20));
+    log.append(message(3, 40));
+
+    assertEquals(1, log.firstAtOrAfter(Time.fromMs(20)));
+    assertEquals(1, log.firstAtOrAfter(Time.fromMs(30)));
+    assertEquals(3, log.firstAtOrAfter(Time.fromMs(31)));
+  }
+
+  @Test
+  public void testSlice() {
+
+    for (int i = 0; i < 10; i++) {
+      log.append(message(i, 10 * i));
+    }
+
+    assertEquals(3, log.slice(2, 5).size());
+    assertEquals(new Uuid(2), log.slice(2, 5).get(0).id);
+    assertEquals(2, log.slice(-3, 2).size());
+    assertEquals(2, log.slice(8, 100).size());
+    assertTrue(log.slice(5, 2).isEmpty());
+  }
+
+  @Test
+  public void testViewRange() {
+
+    final Model model = new Model();
+    final Controller controller = new Controller(Uuid.NULL, model);
+    final View view = new View(model);
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+
+    final List<Uuid> ids = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      ids.add(controller.newMessage(user.id, conversation.id, "message " + i).id);
+    }
+
+    assertIds(view.getMessages(ids.get(3), 2), ids.subList(3, 6));
+    assertIds(view.getMessages(ids.get(3), -2), ids.subList(1, 4));
+    assertIds(view.getMessages(ids.get(3), 0), ids.subList(3, 4));
+    assertIds(view.getMessages(ids.get(8), 5), ids.subList(8, 10));
+    assertIds(view.getMessages(ids.get(1), Integer.MIN_VALUE), ids.subList(0, 2));
+    assertIds(view.getMessages(ids.get(1), Integer.MAX_VALUE), ids.subList(1, 10));
+    assertTrue(view.getMessages(new Uuid(12345), 3).isEmpty());
+  }
+
+  private static void assertIds(Collection<Message> messages, List<Uuid> expected) {
+    final List<Uuid> actual = new ArrayList<>();
+    for (final Message message : messages) {
+      actual.add(message.id);
+    }
+    assertEquals(expected, actual);
+  }
+
+  private static Message message(int id, long ms) {
+    return new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, "hello");
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+public final class EncodedCacheTest {
+
+  private Controller controller;
+  private EncodedCache cache;
+
+  @Before
+  public void doBefore() {
+    controller = new Controller(Uuid.NULL, new Model());
+    cache = new EncodedCache(1024 * 1024);
+  }
+
+  @Test
+  public void testMatchesSerializers() throws IOException {
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("title", user.id);
+    final Message message = controller.newMessage(user.id, conversation.id, "hello");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    // Twice, so that the second time comes from the cache.
+    for (int i = 0; i < 2; i++) {
+
+      out.reset();
+      cache.writeUsers(out, Arrays.asList(user));
+      assertArrayEquals(expected(User.SERIALIZER, user), out.toByteArray());
+
+      out.reset();
+      cache.writeSummaries(out, Arrays.asList(conversation.summary));
+      assertArrayEquals(expected(ConversationSummary.SERIALIZER, conversation.summary),
+                        out.toByteArray());
+
+      out.reset();
+      cache.writeConversations(out, Arrays.asList(conversation));
+      assertArrayEquals(expected(Conversation.SERIALIZER, conversation), out.toByteArray());
+
+      out.reset();
+      cache.writeMessages(out, Arrays.asList(message));
+      assertArrayEquals(expected(Message.SERIALIZER, message), out.toByteArray());
+    }
+
+    assertEquals(4, cache.size());
+  }
+
+  @Test
+  public void testNewMessageInvalidates() throws IOException {
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("title", user.id);
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cache.writeMessages(out, Arrays.asList(first));
+    cache.writeConversations(out, Arrays.asList(conversation));
+
+    // Changes the first message's "next" and the conversation's "lastMessage".
+    controller.newMessage(user.id, conversation.id, "second");
+
+    out.reset();
+    cache.writeMessages(out, Arrays.asList(first));
+    assertArrayEquals(expected(Message.SERIALIZER, first), out.toByteArray());
+
+    out.reset();
+    cache.writeConversations(out, Arrays.asList(conversation));
+    assertArrayEquals(expected(Conversation.SERIALIZER, conversation), out.toByteArray());
+  }
+
+  @Test
+  public void testBounded() throws IOException {
+
+    final EncodedCache small = new EncodedCache(16 * 1024);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (int i = 0; i < 1000; i++) {
+      small.writeUsers(out, Collections.singleton(controller.newUser("user " + i)));
+    }
+
+    assertTrue(small.bytes() <= 16 * 1024);
+    assertTrue(small.size() < 1000);
+  }
+
+  private static <T> byte[] expected(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.collection(serializer).write(out, Arrays.asList(value));
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,73 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.LinearPattern;
+
+public final class PatternsTest {
+
+  @Test
+  public void testCompileIsCached() {
+
+    final Patterns patterns = new Patterns(2);
+
+    final LinearPattern first = patterns.compile("a.*");
+    assertSame(first, patterns.compile("a.*"));
+
+    // Push it out of the cache.
+    patterns.compile("b.*");
+    patterns.compile("c.*");
+
+    assertNotSame(first, patterns.compile("a.*"));
+  }
+
+  @Test(expected = PatternSyntaxException.class)
+  public void testCompileRejectsUnsupported() {
+    new Patterns().compile("(a)\\1");
+  }
+
+  @Test
+  public void testRequiredLiteral() {
+    assertEquals("hello", Patterns.requiredLiteral("hello.*"));
+    assertEquals("hello world", Patterns.requiredLiteral(".*hello world.*"));
+    assertEquals("abc", Patterns.requiredLiteral("abcd?e"));
+    assertEquals("abc", Patterns.requiredLiteral("abcd*e"));
+    assertEquals("ab", Patterns.requiredLiteral("ab+c"));
+    assertEquals("xyz", Patterns.requiredLiteral("(abcdef)?xyz"));
+    assertEquals("tail", Patterns.requiredLiteral("[abcdef]+tail"));
+    assertEquals("head", Patterns.requiredLiteral("head\\d+more"));
+    assertEquals("", Patterns.requiredLiteral("hello|world"));
+    assertEquals("", Patterns.requiredLiteral("(?i)hello"));
+    assertEquals("", Patterns.requiredLiteral(".*"));
+  }
+
+  @Test
+  public void testRequiredLiteralIsRequired() {
+
+    final String[] regexes = { "hel+o.*", "a{2}bc", "x[]y]zzz", "ab\\.cd", "[a[b]]cde" };
+    final String[] texts = { "hello world", "aabc", "x]zzz", "ab.cd", "bcde" };
+
+    for (int i = 0; i < regexes.length; i++) {
+      assertTrue(regexes[i], Pattern.matches(regexes[i], texts[i]));
+      assertTrue(regexes[i], texts[i].contains(Patterns.requiredLiteral(regexes[i])));
+    }
+  }
+}
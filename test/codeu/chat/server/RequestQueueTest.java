@@ -0,0 +1,141 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Metrics;
+
+public final class RequestQueueTest {
+
+  // Holds on to everything it is given until "runAll" is called, like a pool
+  // whose workers are all busy.
+  private final List<Runnable> held = new ArrayList<>();
+  private final Executor workers = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      held.add(task);
+    }
+  };
+
+  private final List<String> ran = new ArrayList<>();
+
+  private RequestQueue queue;
+
+  @Before
+  public void doBefore() {
+    queue = new RequestQueue(workers, 3);
+  }
+
+  @Test
+  public void testPriorityOrder() {
+
+    assertTrue(queue.offer(RequestQueue.BULK, record("bulk")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("normal 1")));
+    assertTrue(queue.offer(RequestQueue.HIGH, record("high")));
+
+    runAll();
+
+    assertEquals(3, ran.size());
+    assertEquals("high", ran.get(0));
+    assertEquals("normal 1", ran.get(1));
+    assertEquals("bulk", ran.get(2));
+  }
+
+  @Test
+  public void testFirstComeFirstServedWithinPriority() {
+
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("first")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("second")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("third")));
+
+    runAll();
+
+    assertEquals("first", ran.get(0));
+    assertEquals("second", ran.get(1));
+    assertEquals("third", ran.get(2));
+  }
+
+  @Test
+  public void testRejectWhenFull() {
+
+    final long rejected = Metrics.counter("server.queue.rejected").get();
+
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("1")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("2")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("3")));
+    assertFalse(queue.offer(RequestQueue.HIGH, record("4")));
+
+    assertEquals(3, queue.depth());
+    assertEquals(rejected + 1, Metrics.counter("server.queue.rejected").get());
+
+    runAll();
+
+    assertEquals(0, queue.depth());
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("5")));
+  }
+
+  @Test
+  public void testRetryAfterFollowsRecentWaits() throws Exception {
+
+    // Nothing has waited yet, so the hint is the floor.
+    assertEquals(50, queue.retryAfterMs());
+
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("1")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("2")));
+    assertTrue(queue.offer(RequestQueue.NORMAL, record("3")));
+
+    Thread.sleep(200);
+    runAll();
+
+    // Three waits of at least 200ms move the average most of a third of the
+    // way there.
+    assertTrue(queue.retryAfterMs() >= 100);
+  }
+
+  @Test
+  public void testPriorityOfTypes() {
+    assertEquals(RequestQueue.HIGH, RequestQueue.priority(NetworkCode.NEW_MESSAGE_REQUEST));
+    assertEquals(RequestQueue.HIGH, RequestQueue.priority(NetworkCode.SUBSCRIBE_REQUEST));
+    assertEquals(RequestQueue.NORMAL, RequestQueue.priority(NetworkCode.GET_USERS_BY_ID_REQUEST));
+    assertEquals(RequestQueue.NORMAL, RequestQueue.priority(NetworkCode.NO_MESSAGE));
+    assertEquals(RequestQueue.BULK, RequestQueue.priority(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST));
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(name);
+      }
+    };
+  }
+
+  private void runAll() {
+    final List<Runnable> tasks = new ArrayList<>(held);
+    held.clear();
+    for (final Runnable task : tasks) {
+      task.run();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SecondaryIndexTest {
+
+  @Test
+  public void testDefaults() {
+    assertEquals(Model.DEFAULT_MODES, new Model().indexModes());
+  }
+
+  @Test
+  public void testLazyBuiltOnFirstRead() {
+
+    final Model model = model("conversationByText", SecondaryIndex.LAZY);
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    final User user = controller.newUser("user");
+    controller.newConversation("first", user.id);
+    controller.newConversation("second", user.id);
+
+    assertEquals(2, model.conversationByText().containing("s").size());
+
+    // Once built, the index is kept up to date.
+    controller.newConversation("third", user.id);
+    assertEquals(1, model.conversationByText().containing("thi").size());
+    assertEquals(3, model.conversationByText().size());
+  }
+
+  @Test
+  public void testLazyMessageText() {
+
+    final Model model = model("messageText", SecondaryIndex.LAZY);
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+    controller.newMessage(user.id, conversation.id, "hello world");
+    controller.newMessage(user.id, conversation.id, "goodbye world");
+
+    assertEquals(2, search(model, "world", conversation.id));
+    assertEquals(1, search(model, "hello", conversation.id));
+    assertEquals(0, search(model, "hello", new Uuid(12345)));
+  }
+
+  @Test
+  public void testDisabled() {
+
+    final Model model = model("userByText", SecondaryIndex.DISABLED);
+    final Controller controller = new Controller(Uuid.NULL, model);
+
+    controller.newUser("someone");
+
+    assertEquals(0, model.userByText().size());
+    assertNotNull(model.userById().first(controller.newUser("else").id));
+  }
+
+  @Test
+  public void testEager() {
+
+    final Model model = model("userByTime", SecondaryIndex.EAGER);
+
+    model.add(new User(new Uuid(2), "two", Time.fromMs(20)));
+    model.add(new User(new Uuid(1), "one", Time.fromMs(10)));
+
+    assertEquals(new Uuid(1), model.userByTime().first(Time.fromMs(10)).id);
+    assertEquals(new Uuid(2), model.userByTime().first(Time.fromMs(20)).id);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMode() {
+    model("userByTime", "sometimes");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownIndex() {
+    model("userByColor", SecondaryIndex.LAZY);
+  }
+
+  private static Model model(String index, String mode) {
+    final Map<String, String> modes = new HashMap<>();
+    modes.put(index, mode);
+    return new Model(modes);
+  }
+
+  private static int search(Model model, String query, Uuid conversation) {
+    return model.messageText().search(query, false, conversation, Time.fromMs(0), Time.fromMs(Long.MAX_VALUE), 0, 10).size();
+  }
+}
@@ -0,0 +1,217 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  private Subscriptions subscriptions;
+  private Controller controller;
+
+  @Before
+  public void doBefore() {
+    subscriptions = new Subscriptions(4);
+    controller = new Controller(Uuid.NULL, new Model(), subscriptions);
+  }
+
+  @Test
+  public void testPushNewMessages() throws Exception {
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+    final Conversation other = controller.newConversation("other", user.id);
+
+    final TestConnection connection = new TestConnection(null);
+    subscriptions.subscribe(conversation.id, connection, new byte[] { 1 });
+
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    controller.newMessage(user.id, other.id, "other");
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+
+    assertTrue(connection.waitForFlushes(3));
+
+    final InputStream in = new ByteArrayInputStream(connection.written());
+
+    assertEquals(1, in.read());
+
+    assertEquals(NetworkCode.MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals(first.id, Message.SERIALIZER.read(in).id);
+
+    assertEquals(NetworkCode.MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals(second.id, Message.SERIALIZER.read(in).id);
+
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testSlowSubscriberIsDropped() throws Exception {
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+
+    // The subscriber can not write anything until the latch is opened, so its
+    // queue will fill up.
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final TestConnection connection = new TestConnection(blocked);
+    subscriptions.subscribe(conversation.id, connection, new byte[] { 1 });
+
+    assertEquals(1, subscriptions.size());
+
+    for (int i = 0; i < 10; i++) {
+      assertNotNull(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+
+    assertEquals(0, subscriptions.size());
+    assertEquals(0, subscriptions.conversations());
+
+    blocked.countDown();
+
+    assertTrue(connection.waitForClose());
+  }
+
+  @Test
+  public void testSubscribeAfterLastSubscriberDropped() throws Exception {
+
+    final User user = controller.newUser("user");
+    final Conversation conversation = controller.newConversation("conversation", user.id);
+
+    final CountDownLatch blocked = new CountDownLatch(1);
+    subscriptions.subscribe(conversation.id, new TestConnection(blocked), new byte[] { 1 });
+
+    for (int i = 0; i < 10; i++) {
+      controller.newMessage(user.id, conversation.id, "message " + i);
+    }
+
+    blocked.countDown();
+    assertEquals(0, subscriptions.conversations());
+
+    // A new subscriber gets a new entry and is pushed to as before.
+    final TestConnection connection = new TestConnection(null);
+    subscriptions.subscribe(conversation.id, connection, new byte[] { 1 });
+
+    assertEquals(1, subscriptions.conversations());
+
+    final Message message = controller.newMessage(user.id, conversation.id, "again");
+
+    assertTrue(connection.waitForFlushes(2));
+
+    final InputStream in = new ByteArrayInputStream(connection.written());
+
+    assertEquals(1, in.read());
+    assertEquals(NetworkCode.MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals(message.id, Message.SERIALIZER.read(in).id);
+  }
+
+  private static final class TestConnection implements Connection {
+
+    private final CountDownLatch blocked;
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private int flushes = 0;
+
+    private final OutputStream out = new OutputStream() {
+
+      @Override
+      public void write(int b) throws IOException {
+        await();
+        synchronized (TestConnection.this) {
+          written.write(b);
+        }
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        await();
+        synchronized (TestConnection.this) {
+          written.write(bytes, offset, length);
+        }
+      }
+
+      @Override
+      public void flush() {
+        synchronized (TestConnection.this) {
+          flushes++;
+          TestConnection.this.notifyAll();
+        }
+      }
+    };
+
+    public TestConnection(CountDownLatch blocked) {
+      this.blocked = blocked;
+    }
+
+    @Override
+    public InputStream in() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public void close() {
+      closed.countDown();
+    }
+
+    public synchronized byte[] written() {
+      return written.toByteArray();
+    }
+
+    public synchronized boolean waitForFlushes(int count) throws InterruptedException {
+      final long end = System.currentTimeMillis() + 5000;
+      while (flushes < count && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+      return flushes >= count;
+    }
+
+    public boolean waitForClose() throws InterruptedException {
+      return closed.await(5, TimeUnit.SECONDS);
+    }
+
+    private void await() throws IOException {
+      if (blocked != null) {
+        try {
+          blocked.await();
+        } catch (InterruptedException ex) {
+          throw new IOException(ex);
+        }
+      }
+    }
+  }
+}
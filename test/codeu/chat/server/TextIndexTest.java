@@ -0,0 +1,127 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextIndexTest {
+
+  private static final Uuid CONVERSATION_A = new Uuid(100);
+  private static final Uuid CONVERSATION_B = new Uuid(200);
+
+  private static final Time START = Time.fromMs(0);
+  private static final Time END = Time.fromMs(Long.MAX_VALUE);
+
+  private TextIndex index;
+
+  @Before
+  public void doBefore() {
+
+    index = new TextIndex();
+
+    add(CONVERSATION_A, 1, 10, "The quick brown fox");
+    add(CONVERSATION_A, 2, 20, "the lazy dog");
+    add(CONVERSATION_B, 3, 30, "A brown dog, quick!");
+    add(CONVERSATION_B, 4, 40, "quick quick brown");
+    add(CONVERSATION_A, 5, 50, "nothing to see here");
+  }
+
+  @Test
+  public void testTokenize() {
+    assertEquals(Arrays.asList("hello", "world", "42"), TextIndex.tokenize("  Hello, WORLD... 42!"));
+    assertTrue(TextIndex.tokenize("?!").isEmpty());
+    assertTrue(TextIndex.tokenize(null).isEmpty());
+  }
+
+  @Test
+  public void testTerms() {
+    assertIds(search("brown", false), 4, 3, 1);
+    assertIds(search("QUICK brown", false), 4, 3, 1);
+    assertIds(search("dog quick", false), 3);
+    assertIds(search("missing", false));
+    assertIds(search("", false));
+  }
+
+  @Test
+  public void testPhrase() {
+    assertIds(search("quick brown", true), 4, 1);
+    assertIds(search("brown quick", true));
+    assertIds(search("lazy dog", true), 2);
+  }
+
+  @Test
+  public void testScope() {
+    assertIds(index.search("brown", false, CONVERSATION_A, START, END, 0, 10), 1);
+    assertIds(index.search("brown", false, CONVERSATION_B, START, END, 0, 10), 4, 3);
+    assertIds(index.search("brown", false, Uuid.NULL, Time.fromMs(15), Time.fromMs(35), 0, 10), 3);
+  }
+
+  @Test
+  public void testPaging() {
+    assertIds(index.search("brown", false, Uuid.NULL, START, END, 0, 2), 4, 3);
+    assertIds(index.search("brown", false, Uuid.NULL, START, END, 2, 2), 1);
+    assertIds(index.search("brown", false, Uuid.NULL, START, END, 3, 2));
+  }
+
+  @Test
+  public void testManyMessages() {
+
+    final TextIndex big = new TextIndex();
+
+    for (int i = 0; i < 100000; i++) {
+      final String content = (i % 1000 == 0 ? "rare " : "") + "common word " + i;
+      big.add(CONVERSATION_A, new Message(new Uuid(i + 1), Uuid.NULL, Uuid.NULL, Time.fromMs(i), Uuid.NULL, content));
+    }
+
+    final List<Message> found = big.search("common rare", false, Uuid.NULL, START, END, 0, 1000);
+
+    assertEquals(100, found.size());
+    assertEquals(new Uuid(99001), found.get(0).id);
+  }
+
+  private List<Message> search(String query, boolean phrase) {
+    return index.search(query, phrase, Uuid.NULL, START, END, 0, 10);
+  }
+
+  private void add(Uuid conversation, int id, long ms, String content) {
+    index.add(conversation, new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, content));
+  }
+
+  private static void assertIds(Collection<Message> messages, int... expected) {
+
+    final List<Uuid> actual = new ArrayList<>();
+    for (final Message message : messages) {
+      actual.add(message.id);
+    }
+
+    final List<Uuid> wanted = new ArrayList<>();
+    for (final int id : expected) {
+      wanted.add(new Uuid(id));
+    }
+
+    assertEquals(wanted, actual);
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.connections.Frames;
+
+public final class BufferSerializersTest {
+
+  private static final Uuid ROOT = new Uuid(7);
+  private static final Uuid CHAINED = new Uuid(new Uuid(ROOT, -3), Integer.MAX_VALUE);
+
+  private static final Message MESSAGE = new Message(
+      CHAINED, Uuid.NULL, ROOT, Time.fromMs(1234567890123L), new Uuid(9), "hello there");
+
+  @Test
+  public void testPrimitivesMatchStreams() throws IOException {
+
+    assertSame(BufferSerializers.BOOLEAN, Serializers.BOOLEAN, true);
+    assertSame(BufferSerializers.INTEGER, Serializers.INTEGER, Integer.MIN_VALUE);
+    assertSame(BufferSerializers.INTEGER, Serializers.INTEGER, -1);
+    assertSame(BufferSerializers.LONG, Serializers.LONG, Long.MAX_VALUE);
+    assertSame(BufferSerializers.BYTES, Serializers.BYTES, new byte[] { -1, 0, 1 });
+    assertSame(BufferSerializers.STRING, Serializers.STRING, "");
+    assertSame(BufferSerializers.STRING, Serializers.STRING, "some text");
+    assertSame(BufferSerializers.collection(BufferSerializers.INTEGER),
+               Serializers.collection(Serializers.INTEGER),
+               Arrays.asList(1, 2, 3));
+    assertSame(BufferSerializers.nullable(BufferSerializers.STRING),
+               Serializers.nullable(Serializers.STRING),
+               null);
+    assertSame(BufferSerializers.nullable(BufferSerializers.STRING),
+               Serializers.nullable(Serializers.STRING),
+               "not null");
+  }
+
+  @Test
+  public void testModelMatchesStreams() throws IOException {
+
+    assertSame(Uuid.BUFFER_SERIALIZER, Uuid.SERIALIZER, CHAINED);
+    assertSame(Uuid.BUFFER_SERIALIZER, Uuid.SERIALIZER, Uuid.NULL);
+    assertSame(Time.BUFFER_SERIALIZER, Time.SERIALIZER, Time.fromMs(42));
+    assertSame(Message.BUFFER_SERIALIZER, Message.SERIALIZER, MESSAGE);
+    assertSame(User.BUFFER_SERIALIZER, User.SERIALIZER,
+               new User(ROOT, "user", Time.fromMs(5)));
+    assertSame(ConversationSummary.BUFFER_SERIALIZER, ConversationSummary.SERIALIZER,
+               new ConversationSummary(ROOT, CHAINED, Time.fromMs(6), "title"));
+
+    final Conversation conversation = new Conversation(ROOT, CHAINED, Time.fromMs(7), "title");
+    conversation.users.add(new Uuid(1));
+    conversation.users.add(new Uuid(2));
+    conversation.firstMessage = CHAINED;
+    assertSame(Conversation.BUFFER_SERIALIZER, Conversation.SERIALIZER, conversation);
+  }
+
+  @Test
+  public void testReadsWhatStreamsWrote() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Message.SERIALIZER.write(out, MESSAGE);
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(out.size());
+    direct.put(out.toByteArray());
+    direct.flip();
+
+    final Message read = Message.BUFFER_SERIALIZER.read(direct);
+
+    assertFalse(direct.hasRemaining());
+    assertEquals(MESSAGE.id, read.id);
+    assertEquals(MESSAGE.previous, read.previous);
+    assertEquals(MESSAGE.author, read.author);
+    assertEquals(MESSAGE.creation.inMs(), read.creation.inMs());
+    assertEquals(MESSAGE.content, read.content);
+  }
+
+  @Test
+  public void testStreamsReadWhatBuffersWrote() throws IOException {
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(Message.BUFFER_SERIALIZER.size(MESSAGE));
+    Message.BUFFER_SERIALIZER.write(direct, MESSAGE);
+    direct.flip();
+
+    final byte[] bytes = new byte[direct.remaining()];
+    direct.get(bytes);
+
+    final Message read = Message.SERIALIZER.read(new ByteArrayInputStream(bytes));
+
+    assertEquals(MESSAGE.id, read.id);
+    assertEquals(MESSAGE.content, read.content);
+  }
+
+  @Test
+  public void testFrameEncode() throws IOException {
+
+    final ByteBuffer frame = Frames.encode(Message.BUFFER_SERIALIZER, MESSAGE, true);
+
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    Message.SERIALIZER.write(body, MESSAGE);
+
+    assertTrue(frame.isDirect());
+    assertEquals(body.size(), frame.getInt());
+    assertArrayEquals(body.toByteArray(), remaining(frame));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncated() throws IOException {
+
+    final ByteBuffer full = BufferSerializers.encode(Message.BUFFER_SERIALIZER, MESSAGE);
+    full.limit(full.limit() - 1);
+
+    Message.BUFFER_SERIALIZER.read(full);
+  }
+
+  // Check that the buffer serializer writes exactly what the stream serializer
+  // writes, into both a heap and a direct buffer, and says how big it will be.
+  private static <T> void assertSame(BufferSerializer<T> buffers,
+                                     Serializer<T> streams,
+                                     T value) throws IOException {
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    streams.write(expected, value);
+
+    assertEquals(expected.size(), buffers.size(value));
+
+    final ByteBuffer heap = BufferSerializers.encode(buffers, value);
+    assertArrayEquals(expected.toByteArray(), remaining(heap));
+
+    final ByteBuffer direct = ByteBuffer.allocateDirect(buffers.size(value));
+    buffers.write(direct, value);
+    assertFalse(direct.hasRemaining());
+    direct.flip();
+    assertArrayEquals(expected.toByteArray(), remaining(direct));
+  }
+
+  private static byte[] remaining(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
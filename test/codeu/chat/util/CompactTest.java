@@ -0,0 +1,152 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+
+public final class CompactTest {
+
+  @Test
+  public void testVarintRoundTrip() throws IOException {
+
+    final int[] ints = { 0, 1, -1, 63, -64, 64, 300, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    final long[] longs = { 0, -1, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE };
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (final int value : ints) {
+      Serializers.VARINT.write(out, value);
+    }
+    for (final long value : longs) {
+      Serializers.VARLONG.write(out, value);
+    }
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    for (final int value : ints) {
+      assertEquals(value, (int) Serializers.VARINT.read(in));
+    }
+    for (final long value : longs) {
+      assertEquals(value, (long) Serializers.VARLONG.read(in));
+    }
+  }
+
+  @Test
+  public void testVarintSizes() throws IOException {
+    assertEquals(1, size(Serializers.VARINT, 0));
+    assertEquals(1, size(Serializers.VARINT, -64));
+    assertEquals(2, size(Serializers.VARINT, 64));
+    assertEquals(5, size(Serializers.VARINT, Integer.MIN_VALUE));
+    assertEquals(10, size(Serializers.VARLONG, Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testUuidsAndTimes() throws IOException {
+
+    final Uuid root = new Uuid(100);
+
+    final Uuid[] uuids = {
+        new Uuid(root, 5),
+        new Uuid(root, 4),
+        null,
+        new Uuid(new Uuid(root, 7), -9),
+        Uuid.NULL,
+        new Uuid(root, 5)
+    };
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final Compact.Writer writer = new Compact.Writer(out);
+
+    for (final Uuid uuid : uuids) {
+      writer.writeUuid(uuid);
+      writer.writeTime(Time.fromMs(1000));
+    }
+    writer.writeTime(Time.fromMs(999));
+
+    final Compact.Reader reader = new Compact.Reader(new ByteArrayInputStream(out.toByteArray()));
+
+    for (final Uuid uuid : uuids) {
+      assertEquals(uuid, reader.readUuid());
+      assertEquals(1000, reader.readTime().inMs());
+    }
+    assertEquals(999, reader.readTime().inMs());
+  }
+
+  @Test
+  public void testMessagesRoundTripAndShrink() throws IOException {
+
+    final Uuid server = new Uuid(1);
+    final Uuid author = new Uuid(server, 2);
+
+    final List<Message> messages = new ArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      messages.add(new Message(new Uuid(server, 10 + i),
+                               new Uuid(server, 11 + i),
+                               new Uuid(server, 9 + i),
+                               Time.fromMs(1500000000000L + 250 * i),
+                               author,
+                               "message " + i));
+    }
+
+    final ByteArrayOutputStream original = new ByteArrayOutputStream();
+    Message.collectionSerializer(1).write(original, messages);
+
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    Message.collectionSerializer(NetworkCode.COMPACT_VERSION).write(compact, messages);
+
+    // The fixed parts of each message (four Uuids and a time) take 44 bytes
+    // in the original encoding and should take well under half of that.
+    assertTrue(String.format("%d vs %d", compact.size(), original.size()),
+               compact.size() < original.size() / 2);
+
+    final Collection<Message> read = Message.COMPACT_COLLECTION.read(
+        new ByteArrayInputStream(compact.toByteArray()));
+
+    assertEquals(messages.size(), read.size());
+
+    final Iterator<Message> actual = read.iterator();
+
+    for (final Message expected : messages) {
+      final Message next = actual.next();
+      assertEquals(expected.id, next.id);
+      assertEquals(expected.next, next.next);
+      assertEquals(expected.previous, next.previous);
+      assertEquals(expected.author, next.author);
+      assertEquals(expected.creation.inMs(), next.creation.inMs());
+      assertEquals(expected.content, next.content);
+    }
+  }
+
+  private static <T> int size(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return out.size();
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class LinearPatternTest {
+
+  private static final String[] PATTERNS = {
+    "", "abc", "a.c", "a*", "a+b", "a?b", "(ab)*", "(?:ab)+c", "a|b|c", "(a|bc)*d",
+    "[abc]+", "[^abc]*", "[a-c]x", "[]a]", "[a-]", "\\d+", "\\w+\\s\\w+", "\\D\\W\\S",
+    "[\\d_]+", "a{2}", "a{2,}", "a{1,3}b", "(a{0,2}b){2}", "\\.\\*", "^abc$", "a*?b",
+    ".*hello.*", "(a*)*b", "(|a)+", "x(y|)z"
+  };
+
+  private static final String[] TEXTS = {
+    "", "a", "b", "ab", "abc", "abab", "ababc", "bcd", "abcd", "ac", "axc", "aab", "aaab",
+    "aaaab", "bx", "]", "-", "123", "hello world", "x1_", "12_3", "aa", "aaa", "a.*",
+    "aabb", "abaab", "say hello there", "ab\nc", "xz", "xyz", "a b"
+  };
+
+  @Test
+  public void testSameAsJava() {
+    for (final String pattern : PATTERNS) {
+      final LinearPattern linear = LinearPattern.compile(pattern);
+      final Pattern java = Pattern.compile(pattern);
+      for (final String text : TEXTS) {
+        assertEquals(pattern + " on \"" + text + "\"",
+                     java.matcher(text).matches(),
+                     linear.matches(text));
+      }
+    }
+  }
+
+  @Test
+  public void testPathologicalIsLinear() {
+
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      text.append('a');
+    }
+
+    final LinearPattern pattern = LinearPattern.compile("(a*)*(a|aa)*b");
+    final LinearPattern.Budget budget = new LinearPattern.Budget(Long.MAX_VALUE);
+
+    assertFalse(pattern.matches(text, budget));
+
+    // Each character costs at most one step per state, twice over (once to
+    // step and once to follow).
+    final long spent = Long.MAX_VALUE - budget.remaining();
+    assertTrue(spent <= 2L * (text.length() + 1) * pattern.programSize());
+  }
+
+  @Test
+  public void testBudget() {
+
+    final LinearPattern pattern = LinearPattern.compile(".*x.*");
+    final LinearPattern.Budget budget = new LinearPattern.Budget(100);
+
+    try {
+      pattern.matches("this text is long enough to use up one hundred steps", budget);
+      fail("Expected the budget to run out");
+    } catch (LinearPattern.BudgetExceeded ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRejected() {
+
+    final String[] rejected = {
+      "(a)\\1", "(?=a)", "(?i)a", "a*+", "\\bword", "\\p{L}", "\\Qa\\E", "a^", "$a",
+      "[a[b]]", "[a&&b]", "*a", "a**", "(a", "a)", "[abc", "a{2", "a{3,2}", "\\",
+      "(a{100}){200}"
+    };
+
+    for (final String pattern : rejected) {
+      try {
+        LinearPattern.compile(pattern);
+        fail("Expected " + pattern + " to be rejected");
+      } catch (PatternSyntaxException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testNestedTooDeeply() {
+
+    final StringBuilder pattern = new StringBuilder();
+
+    for (int i = 0; i < 20000; i++) {
+      pattern.append('(');
+    }
+    pattern.append('a');
+    for (int i = 0; i < 20000; i++) {
+      pattern.append(')');
+    }
+
+    try {
+      LinearPattern.compile(pattern.toString());
+      fail("Expected deep nesting to be rejected");
+    } catch (PatternSyntaxException ex) {
+      // expected
+    }
+
+    // Nesting within the limit is fine.
+    assertTrue(LinearPattern.compile("((((a))))").matches("a"));
+  }
+
+  @Test(timeout = 5000)
+  public void testRepeatedEmptyGroupsRejected() {
+
+    // Repeating a group that compiles to nothing adds no instructions, but
+    // every copy still costs time to compile.
+    final String[] rejected = {
+      "((){999}){999}", "((){9999}){9999}", "((){999999}){999999}", "a{1001}", "a{2,1001}"
+    };
+
+    for (final String pattern : rejected) {
+      try {
+        LinearPattern.compile(pattern);
+        fail("Expected " + pattern + " to be rejected");
+      } catch (PatternSyntaxException ex) {
+        // expected
+      }
+    }
+
+    assertTrue(LinearPattern.compile("(){1000}a").matches("a"));
+    assertTrue(LinearPattern.compile("a{2,1000}").matches("aaa"));
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public final class SerializersTest {
+
+  @Test
+  public void testIntegerLayout() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, 0x01020304);
+    assertArrayEquals(new byte[] { 1, 2, 3, 4 }, out.toByteArray());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Serializers.INTEGER.write(out, -7);
+    Serializers.INTEGER.write(out, Integer.MIN_VALUE);
+    Serializers.LONG.write(out, Long.MAX_VALUE);
+    Serializers.LONG.write(out, -1L);
+    Serializers.STRING.write(out, "hello");
+    Serializers.BYTES.write(out, new byte[] { -1, 0, 1 });
+
+    final InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+    assertEquals(-7, (int) Serializers.INTEGER.read(in));
+    assertEquals(Integer.MIN_VALUE, (int) Serializers.INTEGER.read(in));
+    assertEquals(Long.MAX_VALUE, (long) Serializers.LONG.read(in));
+    assertEquals(-1L, (long) Serializers.LONG.read(in));
+    assertEquals("hello", Serializers.STRING.read(in));
+    assertArrayEquals(new byte[] { -1, 0, 1 }, Serializers.BYTES.read(in));
+  }
+
+  @Test
+  public void testReadAcrossShortReads() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] value = new byte[1000];
+    Arrays.fill(value, (byte) 7);
+    Serializers.BYTES.write(out, value);
+
+    // A stream that never returns more than one byte per read, like a socket
+    // that only has part of the data.
+    final InputStream in = new ByteArrayInputStream(out.toByteArray()) {
+      @Override
+      public synchronized int read(byte[] buffer, int offset, int length) {
+        return super.read(buffer, offset, Math.min(length, 1));
+      }
+    };
+
+    assertArrayEquals(value, Serializers.BYTES.read(in));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testIntegerEndOfStream() throws IOException {
+    Serializers.INTEGER.read(new ByteArrayInputStream(new byte[] { 1, 2 }));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testBytesEndOfStream() throws IOException {
+    Serializers.BYTES.read(new ByteArrayInputStream(new byte[] { 0, 0, 0, 5, 1 }));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testNullableEndOfStream() throws IOException {
+    Serializers.nullable(Serializers.STRING).read(new ByteArrayInputStream(new byte[0]));
+  }
+}
@@ -15,6 +15,11 @@
 package codeu.chat.util;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 import org.junit.Test;
 
 public final class UuidTest {
@@ -126,4 +131,57 @@ public final class UuidTest {
     assertEquals(id.id(), 200);
     assertEquals(id.root().id(), 100);
   }
+
+  @Test
+  public void testPermutedChainsHashDifferently() {
+
+    final Uuid u1 = new Uuid(new Uuid(1), 2);
+    final Uuid u2 = new Uuid(new Uuid(2), 1);
+
+    assertFalse(Uuid.equals(u1, u2));
+    assertNotEquals(u1.hashCode(), u2.hashCode());
+  }
+
+  @Test
+  public void testSerializerRoundTrip() throws IOException {
+
+    final Uuid id = new Uuid(new Uuid(new Uuid(7), -1), 300);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Uuid.SERIALIZER.write(out, id);
+    Uuid.SERIALIZER.write(out, null);
+
+    final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    final Uuid read = Uuid.SERIALIZER.read(in);
+
+    assertEquals(id, read);
+    assertEquals(id.hashCode(), read.hashCode());
+    assertEquals(id.root(), read.root());
+    assertNull(Uuid.SERIALIZER.read(in));
+  }
+
+  @Test
+  public void testReadIdsShareRoot() {
+
+    final Uuid u1 = Uuid.fromString("100.1");
+    final Uuid u2 = Uuid.fromString("100.2");
+
+    assertSame(u1.root(), u2.root());
+    assertSame(u1.root(), u1.root());
+  }
+
+  @Test
+  public void testPool() {
+
+    final Uuid.Pool pool = new Uuid.Pool(1);
+
+    final Uuid first = pool.intern(new Uuid(1));
+
+    assertSame(first, pool.intern(new Uuid(1)));
+
+    // The pool is full, so other Uuids are given back as they are.
+    final Uuid other = new Uuid(2);
+    assertSame(other, pool.intern(other));
+    assertEquals(1, pool.size());
+  }
 }
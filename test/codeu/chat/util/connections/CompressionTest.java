@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public final class CompressionTest {
+
+  private static byte[] text(int length) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; builder.length() < length; i++) {
+      builder.append("conversation title ").append(i).append(' ');
+    }
+    return builder.substring(0, length).getBytes();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final Compression compression = new Compression();
+    final byte[] original = text(10000);
+
+    final byte[] compressed = compression.compress(original);
+
+    assertNotNull(compressed);
+    assertTrue(compressed.length < original.length / 2);
+    assertArrayEquals(original, compression.decompress(compressed, original.length));
+  }
+
+  @Test
+  public void testSmallIsNotCompressed() {
+    assertNull(new Compression().compress(text(Compression.DEFAULT_THRESHOLD - 1)));
+  }
+
+  @Test
+  public void testRandomIsNotCompressed() {
+
+    final byte[] random = new byte[4096];
+    new Random(1).nextBytes(random);
+
+    assertNull(new Compression().compress(random));
+  }
+
+  @Test
+  public void testDictionary() throws IOException {
+
+    final byte[] dictionary = text(2000);
+    final Compression with = new Compression(0, dictionary);
+    final byte[] original = text(1000);
+
+    final byte[] compressed = with.compress(original);
+
+    assertNotNull(compressed);
+    assertTrue(compressed.length < new Compression(0, null).compress(original).length);
+    assertArrayEquals(original, with.decompress(compressed, original.length));
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingDictionary() throws IOException {
+
+    final byte[] original = text(1000);
+    final byte[] compressed = new Compression(0, text(2000)).compress(original);
+
+    new Compression(0, null).decompress(compressed, original.length);
+  }
+
+  @Test(expected = IOException.class)
+  public void testWrongLength() throws IOException {
+
+    final Compression compression = new Compression();
+    final byte[] original = text(5000);
+
+    compression.decompress(compression.compress(original), original.length + 1);
+  }
+
+  @Test
+  public void testShortLivedThreadsShareAFewDeflaters() throws Exception {
+
+    final Compression compression = new Compression();
+    final byte[] original = text(10000);
+    final AtomicInteger good = new AtomicInteger();
+
+    // Like a server that runs each request on a new thread.
+    final Thread[] threads = new Thread[64];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final byte[] compressed = compression.compress(original);
+            final byte[] back = compression.decompress(compressed, original.length);
+            if (Arrays.equals(original, back)) {
+              good.incrementAndGet();
+            }
+          } catch (IOException ex) {
+            // Counted as bad.
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(threads.length, good.get());
+    assertTrue(compression.idle() <= 2 * Compression.MAX_IDLE);
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class PooledConnectionSourceTest {
+
+  private TestSource source;
+  private PooledConnectionSource pool;
+
+  @Before
+  public void doBefore() {
+    source = new TestSource();
+    pool = new PooledConnectionSource(source, 2, 3);
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+
+    final Connection first = pool.connect();
+    first.out().write(1);
+    first.in().read();
+    first.close();
+
+    final Connection second = pool.connect();
+    second.close();
+
+    assertEquals(1, source.made);
+    assertEquals(0, source.closed);
+  }
+
+  @Test
+  public void testBrokenIsNotReused() throws IOException {
+
+    final Connection first = pool.connect();
+
+    source.failReads = true;
+
+    try {
+      first.in().read();
+      fail("Expected the read to fail");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    first.close();
+    source.failReads = false;
+
+    pool.connect().close();
+
+    assertEquals(2, source.made);
+    assertEquals(1, source.closed);
+  }
+
+  @Test
+  public void testUnreadResponseIsNotReused() throws IOException {
+
+    final Connection first = pool.connect();
+    first.out().write(1);
+    first.close();
+
+    pool.connect().close();
+
+    assertEquals(2, source.made);
+    assertEquals(1, source.closed);
+  }
+
+  @Test
+  public void testMaxIdle() throws IOException {
+
+    final Connection a = pool.connect();
+    final Connection b = pool.connect();
+    final Connection c = pool.connect();
+
+    a.close();
+    b.close();
+    c.close();
+
+    assertEquals(3, source.made);
+    assertEquals(1, source.closed);
+  }
+
+  @Test
+  public void testMaxTotalWaitsForReturn() throws Exception {
+
+    final Connection a = pool.connect();
+    pool.connect();
+    pool.connect();
+
+    final AtomicReference<Connection> fourth = new AtomicReference<>();
+
+    final Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          fourth.set(pool.connect());
+        } catch (IOException ex) {
+          // leave it null
+        }
+      }
+    };
+
+    waiter.start();
+    waiter.join(200);
+
+    assertTrue("Fourth connection should wait", waiter.isAlive());
+
+    a.close();
+    waiter.join(5000);
+
+    assertNotNull(fourth.get());
+    assertEquals(3, source.made);
+  }
+
+  @Test(expected = IOException.class)
+  public void testClosedPool() throws IOException {
+    pool.close();
+    pool.connect();
+  }
+
+  private static final class TestSource implements ConnectionSource {
+
+    int made = 0;
+    int closed = 0;
+    volatile boolean failReads = false;
+
+    @Override
+    public synchronized Connection connect() {
+
+      made++;
+
+      return new Connection() {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private final InputStream in = new InputStream() {
+          @Override
+          public int read() throws IOException {
+            if (failReads) {
+              throw new IOException("Read failed");
+            }
+            return 0;
+          }
+        };
+
+        @Override
+        public InputStream in() {
+          return in;
+        }
+
+        @Override
+        public OutputStream out() {
+          return out;
+        }
+
+        @Override
+        public void close() {
+          synchronized (TestSource.this) {
+            closed++;
+          }
+        }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  // Values are stored under "value % KEYS" so that every key has many values.
+  private static final int KEYS = 64;
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderAndDuplicates() {
+
+    store.insert(2, 20);
+    store.insert(0, 0);
+    store.insert(2, 21);
+    store.insert(1, 10);
+    store.insert(2, 22);
+
+    assertOrder(store.all(), 0, 10, 20, 21, 22);
+    assertOrder(store.at(2), 20, 21, 22);
+    assertOrder(store.at(3));
+    assertOrder(store.after(1), 10, 20, 21, 22);
+    assertOrder(store.before(1), 0, 10);
+    assertOrder(store.range(1, 2), 10, 20, 21, 22);
+    assertOrder(store.range(2, 1));
+
+    assertEquals(20, (int) store.first(2));
+    assertNull(store.first(3));
+  }
+
+  @Test
+  public void testIteratorSeesInsertAfterCreation() {
+
+    store.insert(1, 10);
+
+    final Iterator<Integer> iterator = store.all().iterator();
+    store.insert(2, 20);
+
+    assertEquals(10, (int) iterator.next());
+    assertEquals(20, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testConcurrentReadersAndWriters() throws Exception {
+
+    final int writers = 4;
+    final int readers = 4;
+    final int perWriter = 20000;
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    final List<Thread> writerThreads = new ArrayList<>();
+    final List<Thread> readerThreads = new ArrayList<>();
+
+    for (int w = 0; w < writers; w++) {
+      final int offset = w * perWriter;
+      writerThreads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          await(start);
+          for (int i = 0; i < perWriter; i++) {
+            final int value = offset + i;
+            store.insert(value % KEYS, value);
+          }
+        }
+      }));
+    }
+
+    for (int r = 0; r < readers; r++) {
+      readerThreads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          await(start);
+          try {
+            while (writing.get()) {
+              assertKeyOrder(store.all());
+              assertKeyOrder(store.range(KEYS / 4, KEYS / 2));
+              assertKeyOrder(store.after(KEYS / 2));
+              assertKeyOrder(store.before(KEYS / 2));
+              assertWriterOrder(store.at(KEYS / 3), perWriter);
+            }
+          } catch (Throwable ex) {
+            failure.compareAndSet(null, ex);
+          }
+        }
+      }));
+    }
+
+    for (final Thread thread : writerThreads) { thread.start(); }
+    for (final Thread thread : readerThreads) { thread.start(); }
+
+    start.countDown();
+
+    for (final Thread thread : writerThreads) { thread.join(); }
+    writing.set(false);
+    for (final Thread thread : readerThreads) { thread.join(); }
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    int count = 0;
+    for (final Integer value : store.all()) {
+      count++;
+    }
+    assertEquals(writers * perWriter, count);
+
+    for (int key = 0; key < KEYS; key++) {
+      assertWriterOrder(store.at(key), perWriter);
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static void assertKeyOrder(Iterable<Integer> values) {
+    int lastKey = -1;
+    for (final Integer value : values) {
+      final int key = value % KEYS;
+      assertTrue(key >= lastKey);
+      lastKey = key;
+    }
+  }
+
+  // Each writer inserts its values in increasing order, so under any one key
+  // the values from one writer must come out in increasing order too.
+  private static void assertWriterOrder(Iterable<Integer> values, int perWriter) {
+    final int[] last = new int[16];
+    Arrays.fill(last, -1);
+    for (final Integer value : values) {
+      final int writer = value / perWriter;
+      assertTrue(value > last[writer]);
+      last[writer] = value;
+    }
+  }
+
+  private static void assertOrder(Iterable<Integer> values, int... expected) {
+    int i = 0;
+    for (final Integer value : values) {
+      assertTrue(i < expected.length);
+      assertEquals(expected[i++], (int) value);
+    }
+    assertEquals(expected.length, i);
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class PostingListTest {
+
+  @Test
+  public void testAddSkipsRepeats() {
+
+    final PostingList list = new PostingList();
+
+    list.add(1);
+    list.add(1);
+    list.add(2);
+
+    assertEquals(2, list.size());
+  }
+
+  @Test
+  public void testAddReportsGrowth() {
+
+    final PostingList list = new PostingList();
+
+    assertEquals(0, list.add(0));
+    assertEquals(0, list.add(1));
+    assertEquals(0, list.add(2));
+    assertEquals(0, list.add(3));
+    assertEquals(16, list.add(4));
+  }
+
+  @Test
+  public void testIntersectionNewestFirst() {
+
+    final PostingList a = list(1, 2, 4, 6, 8, 10);
+    final PostingList b = list(2, 3, 6, 10, 11);
+    final PostingList c = list(0, 2, 5, 6, 7, 9, 10, 12);
+
+    assertEquals(Arrays.asList(10, 6, 2), walk(new PostingList.Intersection(a, b, c)));
+    assertEquals(Arrays.asList(11, 10, 6, 3, 2), walk(new PostingList.Intersection(b)));
+  }
+
+  @Test
+  public void testIntersectionEmpty() {
+
+    assertTrue(walk(new PostingList.Intersection(list(1, 3), list(2, 4))).isEmpty());
+    assertTrue(walk(new PostingList.Intersection(list(), list(2, 4))).isEmpty());
+    assertTrue(walk(new PostingList.Intersection()).isEmpty());
+  }
+
+  private static PostingList list(int... positions) {
+    final PostingList list = new PostingList();
+    for (final int position : positions) {
+      list.add(position);
+    }
+    return list;
+  }
+
+  private static List<Integer> walk(PostingList.Intersection intersection) {
+    final List<Integer> positions = new ArrayList<>();
+    for (int position = intersection.previous(); position >= 0; position = intersection.previous()) {
+      positions.add(position);
+    }
+    return positions;
+  }
+}
@@ -147,6 +147,44 @@ public final class StoreTest {
     assertTrue(store.first(4) == 40);
   }
 
+  @Test
+  public void testDuplicatesInterleaved() {
+    store.insert(2, 20);
+    store.insert(0, 0);
+    store.insert(2, 21);
+    store.insert(1, 10);
+    store.insert(0, 1);
+    store.insert(2, 22);
+    store.insert(1, 11);
+
+    assertOrder(store.all(), new int[] { 0, 1, 10, 11, 20, 21, 22 });
+    assertOrder(store.at(1), new int[] { 10, 11 });
+    assertOrder(store.range(0, 1), new int[] { 0, 1, 10, 11 });
+    assertOrder(store.after(1), new int[] { 10, 11, 20, 21, 22 });
+  }
+
+  @Test
+  public void testManyDuplicates() {
+
+    final int count = 100000;
+
+    for (int i = 0; i < count; i++) {
+      store.insert(1, i);
+    }
+    store.insert(0, -1);
+    store.insert(2, count);
+
+    int expected = 0;
+    for (final Integer i : store.at(1)) {
+      assertTrue(i == expected);
+      expected += 1;
+    }
+    assertTrue(expected == count);
+
+    assertTrue(store.first(1) == 0);
+    assertTrue(store.first(2) == count);
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;
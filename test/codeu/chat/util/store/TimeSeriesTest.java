@@ -0,0 +1,104 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.util.Time;
+
+public final class TimeSeriesTest {
+
+  private TimeSeries<Integer> series;
+
+  @Before
+  public void doBefore() {
+    series = new TimeSeries<>();
+  }
+
+  @Test
+  public void testInOrder() {
+
+    for (int i = 0; i < 100; i++) {
+      series.insert(Time.fromMs(i), i);
+    }
+
+    assertOrder(series.range(Time.fromMs(10), Time.fromMs(13)), new int[] { 10, 11, 12, 13 });
+    assertOrder(series.before(Time.fromMs(2)), new int[] { 0, 1, 2 });
+    assertOrder(series.after(Time.fromMs(97)), new int[] { 97, 98, 99 });
+    assertOrder(series.range(Time.fromMs(200), Time.fromMs(300)), new int[] { });
+    assertOrder(series.range(Time.fromMs(13), Time.fromMs(10)), new int[] { });
+
+    assertTrue(series.first(Time.fromMs(42)) == 42);
+    assertNull(series.first(Time.fromMs(100)));
+  }
+
+  @Test
+  public void testEqualTimes() {
+
+    series.insert(Time.fromMs(1), 10);
+    series.insert(Time.fromMs(2), 20);
+    series.insert(Time.fromMs(2), 21);
+    series.insert(Time.fromMs(2), 22);
+    series.insert(Time.fromMs(3), 30);
+
+    assertOrder(series.at(Time.fromMs(2)), new int[] { 20, 21, 22 });
+    assertTrue(series.first(Time.fromMs(2)) == 20);
+  }
+
+  @Test
+  public void testOutOfOrder() {
+
+    series.insert(Time.fromMs(10), 10);
+    series.insert(Time.fromMs(30), 30);
+    series.insert(Time.fromMs(20), 20);
+    series.insert(Time.fromMs(40), 40);
+    series.insert(Time.fromMs(5), 5);
+    series.insert(Time.fromMs(30), 31);
+
+    assertOrder(series.all(), new int[] { 5, 10, 20, 30, 31, 40 });
+    assertOrder(series.range(Time.fromMs(6), Time.fromMs(30)), new int[] { 10, 20, 30, 31 });
+    assertOrder(series.before(Time.fromMs(4)), new int[] { });
+    assertOrder(series.after(Time.fromMs(41)), new int[] { });
+
+    assertTrue(series.first(Time.fromMs(20)) == 20);
+    assertTrue(series.first(Time.fromMs(5)) == 5);
+  }
+
+  @Test
+  public void testSeesLaterInserts() {
+
+    series.insert(Time.fromMs(1), 1);
+
+    final Iterable<Integer> all = series.all();
+    series.insert(Time.fromMs(2), 2);
+
+    assertOrder(all, new int[] { 1, 2 });
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(at < expected.length);
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
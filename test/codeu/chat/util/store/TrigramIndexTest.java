@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class TrigramIndexTest {
+
+  private TrigramIndex<Integer> index;
+
+  @Before
+  public void doBefore() {
+
+    index = new TrigramIndex<>();
+
+    index.insert("Hello World", 1);
+    index.insert("world peace", 2);
+    index.insert("Help wanted", 3);
+    index.insert("hello", 4);
+  }
+
+  @Test
+  public void testContaining() {
+    assertEquals(Arrays.asList(1, 2), index.containing("WORLD"));
+    assertEquals(Arrays.asList(1, 4), index.containing("ello"));
+    assertEquals(Arrays.asList(1, 3, 4), index.containing("el"));
+    assertEquals(Collections.emptyList(), index.containing("xyz"));
+    assertEquals(Arrays.asList(1, 2, 3, 4), index.containing(""));
+  }
+
+  @Test
+  public void testStartingWith() {
+    assertEquals(Arrays.asList(1, 3, 4), index.startingWith("he"));
+    assertEquals(Arrays.asList(1, 4), index.startingWith("HELLO"));
+    assertEquals(Arrays.asList(2), index.startingWith("w"));
+    assertEquals(Collections.emptyList(), index.startingWith("world peace and quiet"));
+  }
+
+  @Test
+  public void testCandidates() {
+    // Candidates may include values that do not match, but never leave out one
+    // that does.
+    assertTrue(index.candidates("lo W").containsAll(Arrays.asList(1)));
+    assertFalse(index.candidates("peace").contains(1));
+    assertEquals(4, index.candidates("ab").size());
+  }
+
+  @Test
+  public void testMany() {
+
+    final TrigramIndex<Integer> big = new TrigramIndex<>();
+
+    for (int i = 0; i < 10000; i++) {
+      big.insert("conversation " + i, i);
+    }
+
+    assertEquals(Arrays.asList(1234), big.containing("ion 1234"));
+    assertEquals(11, big.startingWith("conversation 999").size());
+  }
+}
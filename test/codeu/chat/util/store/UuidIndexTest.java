@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+import codeu.chat.util.Uuid;
+
+public final class UuidIndexTest {
+
+  private UuidIndex<String> index;
+
+  @Before
+  public void doBefore() {
+    index = new UuidIndex<>();
+  }
+
+  @Test
+  public void testFirstMissing() {
+    assertNull(index.first(new Uuid(1)));
+    assertNull(index.first(null));
+  }
+
+  @Test
+  public void testFirstShortAndLongIds() {
+
+    final Uuid root = new Uuid(7);
+    final Uuid child = new Uuid(root, 8);
+    final Uuid grandchild = new Uuid(child, 9);
+
+    index.insert(root, "root");
+    index.insert(child, "child");
+    index.insert(grandchild, "grandchild");
+
+    assertEquals("root", index.first(new Uuid(7)));
+    assertEquals("child", index.first(new Uuid(new Uuid(7), 8)));
+    assertEquals("grandchild", index.first(new Uuid(new Uuid(new Uuid(7), 8), 9)));
+
+    // Same last link, different chain.
+    assertNull(index.first(new Uuid(8)));
+    assertNull(index.first(new Uuid(new Uuid(6), 8)));
+    assertNull(index.first(new Uuid(new Uuid(new Uuid(6), 8), 9)));
+  }
+
+  @Test
+  public void testNegativeLinks() {
+
+    index.insert(new Uuid(new Uuid(-1), -2), "negative");
+
+    assertEquals("negative", index.first(new Uuid(new Uuid(-1), -2)));
+    assertNull(index.first(new Uuid(new Uuid(-2), -1)));
+  }
+
+  @Test
+  public void testManyInsertsResize() {
+
+    final Uuid root = new Uuid(1);
+
+    for (int i = 0; i < 10000; i++) {
+      index.insert(new Uuid(root, i), Integer.toString(i));
+    }
+
+    assertEquals(10000, index.size());
+
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(Integer.toString(i), index.first(new Uuid(root, i)));
+    }
+
+    assertNull(index.first(new Uuid(root, 10000)));
+  }
+
+  @Test
+  public void testAllInInsertOrder() {
+
+    index.insert(new Uuid(30), "a");
+    index.insert(new Uuid(10), "b");
+    index.insert(new Uuid(20), "c");
+
+    final Iterator<String> all = index.all().iterator();
+
+    assertEquals("a", all.next());
+    assertEquals("b", all.next());
+    assertEquals("c", all.next());
+    assertFalse(all.hasNext());
+  }
+
+  @Test
+  public void testDuplicateKeepsFirst() {
+
+    index.insert(new Uuid(5), "first");
+    index.insert(new Uuid(5), "second");
+
+    assertEquals(1, index.size());
+    assertEquals("first", index.first(new Uuid(5)));
+  }
+}